@@ -0,0 +1,36 @@
+package com.company;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and writes JMH's JSON results so runs can be compared across versions.
+ *
+ * Usage: BenchmarkMain [results.json] [benchmark regex]
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+
+        String resultPath = args.length > 0 ? args[0] : "bench-results/results-" + System.currentTimeMillis() + ".json";
+        String include = args.length > 1 ? args[1] : "com\\.company\\..*Benchmark";
+
+        File parent = new File(resultPath).getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+
+        Options options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(resultPath)
+                .build();
+        new Runner(options).run();
+
+        System.out.println("Results written to " + resultPath);
+    }
+}
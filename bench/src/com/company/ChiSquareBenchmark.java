@@ -0,0 +1,45 @@
+package com.company;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The chi squared pre-pruning test for the root split, given its contingency counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChiSquareBenchmark extends SyntheticBenchmark {
+
+    private ContingencyTables tables;
+    private int attributeIndex;
+    private int numValues;
+
+    @Setup
+    public void setUp() {
+        EncodedDataset data = new EncodedDataset(this.generate());
+        int[] rows = data.labeledRows();
+        this.tables = new ContingencyTables(data, new boolean[data.numAttributes()]);
+        this.tables.count(rows, 0, rows.length);
+        this.attributeIndex = this.tables.findBestAttribute();
+        this.numValues = data.numValues(this.attributeIndex);
+    }
+
+    @Benchmark
+    public boolean isSignificant() {
+        return this.tables.chiSquared(this.attributeIndex) > CriticalValuesTable.criticalValue(this.numValues, 0);
+    }
+}
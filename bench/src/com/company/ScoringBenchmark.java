@@ -0,0 +1,102 @@
+package com.company;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring a trained tree one row at a time and over a batch of BATCH_SIZE rows, through
+ * ID3TreeNode.evaluateInstance, through CompiledTree and through the generated BytecodeTree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoringBenchmark extends SyntheticBenchmark {
+
+    public static final int BATCH_SIZE = 1024;
+
+    private ID3TreeNode tree;
+    private CompiledTree compiledTree;
+    private BytecodeTree bytecodeTree;
+    private Instance[] instances;
+    private double[][] values;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Instances data = this.generate();
+        this.tree = new ID3TreeNode(0);
+        this.tree.train(data);
+        this.compiledTree = new CompiledTree(this.tree, data);
+        this.bytecodeTree = BytecodeTree.compile(this.compiledTree);
+
+        this.instances = new Instance[BATCH_SIZE];
+        this.values = new double[BATCH_SIZE][];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            this.instances[i] = data.get(i % data.size());
+            this.values[i] = this.instances[i].toDoubleArray();
+        }
+    }
+
+    private int nextRow() {
+        this.next = (this.next + 1) & (BATCH_SIZE - 1);
+        return this.next;
+    }
+
+    @Benchmark
+    public Double evaluateInstance() {
+        return this.tree.evaluateInstance(this.instances[this.nextRow()]);
+    }
+
+    @Benchmark
+    public double compiledInstance() {
+        return this.compiledTree.score(this.instances[this.nextRow()]);
+    }
+
+    @Benchmark
+    public double compiledValues() {
+        return this.compiledTree.score(this.values[this.nextRow()]);
+    }
+
+    @Benchmark
+    public double bytecodeInstance() {
+        return this.bytecodeTree.score(this.instances[this.nextRow()]);
+    }
+
+    @Benchmark
+    public double bytecodeValues() {
+        return this.bytecodeTree.score(this.values[this.nextRow()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void evaluateInstanceBatch(Blackhole blackhole) {
+        for (Instance instance : this.instances) {
+            blackhole.consume(this.tree.evaluateInstance(instance));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void compiledValuesBatch(Blackhole blackhole) {
+        for (double[] row : this.values) {
+            blackhole.consume(this.compiledTree.score(row));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.company;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import weka.core.Attribute;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Choosing the split attribute for a single node holding every row, with the contingency
+ * table kernel counting rows or intersecting row bitmaps, and with the original
+ * per-attribute GainInfo maps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SplitSearchBenchmark extends SyntheticBenchmark {
+
+    private EncodedDataset data;
+    private int[] rows;
+    private boolean[] usedAttributes;
+    private BitmapIndex bitmapIndex;
+    private RowBitmap allRows;
+
+    @Setup
+    public void setUp() {
+        this.data = new EncodedDataset(this.generate());
+        this.rows = this.data.labeledRows();
+        this.usedAttributes = new boolean[this.data.numAttributes()];
+        this.bitmapIndex = new BitmapIndex(this.data, this.rows);
+        this.allRows = RowBitmap.of(this.rows, 0, this.rows.length);
+    }
+
+    @Benchmark
+    public int contingencyTables() {
+        ContingencyTables tables = new ContingencyTables(this.data, this.usedAttributes);
+        tables.count(this.rows, 0, this.rows.length);
+        return tables.findBestAttribute();
+    }
+
+    @Benchmark
+    public int contingencyTablesBitmaps() {
+        ContingencyTables tables = new ContingencyTables(this.data, this.usedAttributes);
+        tables.count(this.bitmapIndex, this.allRows);
+        return tables.findBestAttribute();
+    }
+
+    @Benchmark
+    public int gainInfo() {
+        Attribute classAttribute = this.data.attribute(this.data.classIndex());
+        double entropy = 0.0;
+        int[] classCounts = new int[this.data.numClasses()];
+        for (int row : this.rows) {
+            classCounts[this.data.classCode(row)]++;
+        }
+        for (int count : classCounts) {
+            entropy += GainInfo.entropyTerm(count, this.rows.length);
+        }
+
+        int attributeWithHighestGain = -1;
+        double highestGain = -1.0;
+        for (int j = 0; j < this.data.numAttributes(); j++) {
+            if (j == this.data.classIndex()) continue;
+
+            GainInfo gainInfo = new GainInfo(this.data.attribute(j), classAttribute);
+            for (int row : this.rows) {
+                int code = this.data.code(j, row);
+                if (code != EncodedDataset.MISSING) {
+                    gainInfo.addInstance(code, this.data.classCode(row));
+                }
+            }
+
+            double gain = gainInfo.gain(entropy);
+            if (gain > highestGain) {
+                highestGain = gain;
+                attributeWithHighestGain = j;
+            }
+        }
+        return attributeWithHighestGain;
+    }
+}
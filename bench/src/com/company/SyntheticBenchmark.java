@@ -0,0 +1,29 @@
+package com.company;
+
+import org.openjdk.jmh.annotations.Param;
+import weka.core.Instances;
+
+/**
+ * Dataset shape shared by every benchmark. Override any of these with -p name=value.
+ */
+public abstract class SyntheticBenchmark {
+
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"20", "200"})
+    public int attributes;
+
+    @Param({"4"})
+    public int arity;
+
+    @Param({"2"})
+    public int classes;
+
+    @Param({"0.0", "0.05"})
+    public double missingRate;
+
+    protected Instances generate() {
+        return SyntheticData.generate(this.rows, this.attributes, this.arity, this.classes, this.missingRate, 42L);
+    }
+}
@@ -0,0 +1,60 @@
+package com.company;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates nominal datasets of any shape for the benchmarks. The class is a function of
+ * the first three attributes plus 10% label noise, so trees have real structure to find.
+ */
+public class SyntheticData {
+
+    public static Instances generate(int numRows, int numAttributes, int arity, int numClasses, double missingRate, long seed) {
+
+        Random random = new Random(seed);
+        ArrayList<Attribute> attributes = new ArrayList<>(numAttributes + 1);
+        for (int j = 0; j < numAttributes; j++) {
+            attributes.add(new Attribute("a" + j, values("v", arity)));
+        }
+        attributes.add(new Attribute("class", values("c", numClasses)));
+
+        Instances data = new Instances("synthetic", attributes, numRows);
+        data.setClassIndex(numAttributes);
+
+        for (int i = 0; i < numRows; i++) {
+            double[] values = new double[numAttributes + 1];
+            for (int j = 0; j < numAttributes; j++) {
+                values[j] = random.nextInt(arity);
+            }
+
+            int signal = 0;
+            for (int j = 0; j < Math.min(3, numAttributes); j++) {
+                signal += (j + 1) * (int) values[j];
+            }
+            values[numAttributes] = random.nextDouble() < 0.1 ? random.nextInt(numClasses) : signal % numClasses;
+
+            // Knock out values only after the class has been decided
+            for (int j = 0; j < numAttributes; j++) {
+                if (random.nextDouble() < missingRate) {
+                    values[j] = Double.NaN;
+                }
+            }
+            data.add(new DenseInstance(1.0, values));
+        }
+
+        return data;
+    }
+
+    private static List<String> values(String prefix, int count) {
+        List<String> values = new ArrayList<>(count);
+        for (int k = 0; k < count; k++) {
+            values.add(prefix + k);
+        }
+        return values;
+    }
+}
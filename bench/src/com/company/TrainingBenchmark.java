@@ -0,0 +1,86 @@
+package com.company;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import weka.core.Instances;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end ID3TreeNode.train, from Instances to a finished tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainingBenchmark extends SyntheticBenchmark {
+
+    // Nodes at least this large pick their split from a sample in trainApproximate
+    public static final int APPROXIMATE_SPLIT_MIN_ROWS = 10000;
+
+    @Param({"0", "2"})
+    public int confidenceLevel;
+
+    private Instances data;
+
+    @Setup
+    public void setUp() {
+        this.data = this.generate();
+    }
+
+    @Benchmark
+    public ID3TreeNode train() {
+        ID3TreeNode tree = new ID3TreeNode(this.confidenceLevel);
+        tree.train(this.data);
+        return tree;
+    }
+
+    @Benchmark
+    public ID3TreeNode trainParallel() {
+        TrainingOptions options = new TrainingOptions();
+        options.setParallelism(Runtime.getRuntime().availableProcessors());
+        options.setParallelSplitSearch(true);
+
+        ID3TreeNode tree = new ID3TreeNode(this.confidenceLevel);
+        tree.train(this.data, options);
+        return tree;
+    }
+
+    @Benchmark
+    public ID3TreeNode trainApproximate() {
+        ID3TreeNode tree = new ID3TreeNode(this.confidenceLevel);
+        tree.train(this.data, approximateOptions());
+        return tree;
+    }
+
+    /**
+     * Trains once more with every sampled split audited, so each run reports how often
+     * trainApproximate settled on a different attribute than exact counting.
+     */
+    @TearDown
+    public void reportApproximateSplits() {
+        TrainingOptions options = approximateOptions();
+        options.setApproximateSplitAudit(true);
+        EncodedDataset encoded = new EncodedDataset(this.data);
+        ID3TreeNode tree = new ID3TreeNode(this.confidenceLevel);
+        System.out.println(tree.train(encoded, encoded.labeledRows(), options));
+    }
+
+    private static TrainingOptions approximateOptions() {
+        TrainingOptions options = new TrainingOptions();
+        options.setApproximateSplits(APPROXIMATE_SPLIT_MIN_ROWS, TrainingOptions.DEFAULT_APPROXIMATE_SPLIT_DELTA);
+        return options;
+    }
+}
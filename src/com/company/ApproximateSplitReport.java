@@ -0,0 +1,68 @@
+package com.company;
+
+/**
+ * What approximate split search did while training one tree: how many large nodes
+ * picked their split from a sample, and, when audited, how often an exact count would
+ * have picked a different attribute.
+ */
+public class ApproximateSplitReport {
+
+    private final long numSearches;
+    private final long numDecided;
+    private final long rowsSampled;
+    private final long numAudited;
+    private final long numDisagreed;
+
+    ApproximateSplitReport(long numSearches, long numDecided, long rowsSampled, long numAudited, long numDisagreed) {
+        this.numSearches = numSearches;
+        this.numDecided = numDecided;
+        this.rowsSampled = rowsSampled;
+        this.numAudited = numAudited;
+        this.numDisagreed = numDisagreed;
+    }
+
+    /**
+     * Nodes large enough to search on a sample.
+     */
+    public long getNumSearches() {
+        return this.numSearches;
+    }
+
+    /**
+     * Nodes whose split the sample settled, rather than falling back to counting every row.
+     */
+    public long getNumDecided() {
+        return this.numDecided;
+    }
+
+    public double getDecidedRate() {
+        return this.numSearches == 0 ? 0.0 : (double) this.numDecided / this.numSearches;
+    }
+
+    public long getRowsSampled() {
+        return this.rowsSampled;
+    }
+
+    public long getNumAudited() {
+        return this.numAudited;
+    }
+
+    /**
+     * Audited nodes where counting every row would have picked another attribute.
+     */
+    public long getNumDisagreed() {
+        return this.numDisagreed;
+    }
+
+    public double getDisagreementRate() {
+        return this.numAudited == 0 ? 0.0 : (double) this.numDisagreed / this.numAudited;
+    }
+
+    public String toString() {
+        String audit = this.numAudited == 0
+                ? "not audited"
+                : String.format("%d of %d audited disagreed with exact counting (%.1f%%)", this.numDisagreed, this.numAudited, 100 * this.getDisagreementRate());
+        return String.format("Approximate splits: %d of %d searches decided from a sample (%.1f%%), %d rows sampled, %s",
+                this.numDecided, this.numSearches, 100 * this.getDecidedRate(), this.rowsSampled, audit);
+    }
+}
@@ -0,0 +1,111 @@
+package com.company;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Picks a node's nominal split attribute from a growing random sample of its rows. The
+ * sample doubles until the best attribute's gain beats the runner up's by more than the
+ * Hoeffding bound for the sample size, the same test HoeffdingTree splits on. If that
+ * has not happened by the time the sample reaches a quarter of the node, the remaining
+ * rows are counted into the same tables, which then hold exactly what counting the
+ * whole node would have, so nothing is counted twice.
+ */
+class ApproximateSplitSearch {
+
+    public static final int INITIAL_SAMPLE_SIZE = 1000;
+
+    /**
+     * The sample stops growing once it would pass this fraction of the node's rows.
+     */
+    public static final int MAX_SAMPLE_FRACTION = 4;
+
+    /**
+     * Smaller nodes could not draw even the initial sample, so they are always counted exactly.
+     */
+    public static final int MIN_NODE_ROWS = MAX_SAMPLE_FRACTION * INITIAL_SAMPLE_SIZE;
+
+    private TrainingContext context;
+    private int from;
+    private int to;
+    private ContingencyTables tables;
+    private int attributeIndex;
+
+    /**
+     * Search over rows[from, to), using scratch[from, to) as working space.
+     */
+    public ApproximateSplitSearch(TrainingContext context, int from, int to, boolean[] tableExcludedAttributes) {
+        this.context = context;
+        this.from = from;
+        this.to = to;
+        this.tables = new ContingencyTables(context.getData(), tableExcludedAttributes, null, context.getWeights());
+        this.attributeIndex = -1;
+    }
+
+    /**
+     * Samples until one attribute is clearly ahead, returning true, or until the sample
+     * is as large as it may grow, counting the remaining rows and returning false. The sample only depends on the node's rows, so the
+     * outcome is the same on any thread.
+     */
+    public boolean run() {
+        int[] sample = this.context.getScratch();
+        System.arraycopy(this.context.getRows(), this.from, sample, this.from, this.to - this.from);
+
+        Random random = new Random(((long) this.from << 32) ^ this.to);
+        double delta = this.context.getOptions().getApproximateSplitDelta();
+        int numClasses = this.context.getData().numClasses();
+        int numRows = this.to - this.from;
+        int sampled = 0;
+        int maxSampleSize = numRows / MAX_SAMPLE_FRACTION;
+        for (int sampleSize = INITIAL_SAMPLE_SIZE; sampleSize <= maxSampleSize; sampleSize *= 2) {
+            // Partial Fisher-Yates shuffle, growing the random prefix of the range that has been counted
+            for (int i = this.from + sampled; i < this.from + sampleSize; i++) {
+                int pick = i + random.nextInt(this.to - i);
+                int row = sample[pick];
+                sample[pick] = sample[i];
+                sample[i] = row;
+            }
+            // Counting in row order keeps the column reads sequential
+            Arrays.sort(sample, this.from + sampled, this.from + sampleSize);
+            this.tables.count(sample, this.from + sampled, this.from + sampleSize);
+            sampled = sampleSize;
+
+            int best = this.tables.findBestAttribute();
+            if (best == -1) continue;
+            double epsilon = HoeffdingTree.hoeffdingBound(numClasses, delta, sampled);
+            if (this.tables.getGain(best) - this.tables.findRunnerUpGain(best) > epsilon) {
+                this.attributeIndex = best;
+                break;
+            }
+        }
+
+        if (this.attributeIndex == -1) {
+            // Past that point sampling costs more than it can save, so the rest is counted in
+            // place, the same way exact counting would have
+            if (this.context.shouldSearchInParallel(this.to - this.from)) {
+                this.tables.countInParallel(sample, this.from + sampled, this.to, this.context.getOptions().getSplitSearchSliceSize());
+            } else {
+                this.tables.count(sample, this.from + sampled, this.to);
+            }
+        }
+        this.context.approximateSearched(sampled, this.attributeIndex != -1);
+        if (TrainingMetrics.ENABLED) {
+            TrainingMetrics.approximateSearch(sampled, this.attributeIndex != -1);
+        }
+        return this.attributeIndex != -1;
+    }
+
+    /**
+     * The attribute the sample settled on, or -1 if run returned false.
+     */
+    public int getAttributeIndex() {
+        return this.attributeIndex;
+    }
+
+    /**
+     * The tables counted so far, which cover every row of the node when run returned false.
+     */
+    public ContingencyTables getTables() {
+        return this.tables;
+    }
+}
@@ -0,0 +1,185 @@
+package com.company;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bagged ID3 trees that predict by majority vote, or a random forest when attributesPerSplit
+ * is set. Every tree trains on the same EncodedDataset: its bootstrap sample is an int
+ * weight per row counting how often the row was drawn, so no sample is ever copied and
+ * the weights are dropped once the tree is built. Only the compiled trees are kept.
+ *
+ * Trees train in parallel, one per task, each on a single thread with its own Random, so
+ * the ensemble is the same for a given seed whatever the number of threads.
+ */
+public class BaggedEnsemble implements TreeScorer {
+
+    private int numTrees;
+    private Integer confidenceLevel;
+    private int attributesPerSplit;
+    private long seed;
+    private Instances header;
+    private int numClasses;
+    private CompiledTree[] trees;
+
+    /**
+     * attributesPerSplit of 0 considers every attribute at each split, which is plain bagging.
+     */
+    public BaggedEnsemble(int numTrees, Integer confidenceLevel, int attributesPerSplit, long seed) {
+        if (numTrees < 1) {
+            throw new IllegalArgumentException("Need at least 1 tree, got " + numTrees);
+        }
+        if (attributesPerSplit < 0) {
+            throw new IllegalArgumentException("Attributes per split must not be negative, got " + attributesPerSplit);
+        }
+        this.numTrees = numTrees;
+        this.confidenceLevel = confidenceLevel;
+        this.attributesPerSplit = attributesPerSplit;
+        this.seed = seed;
+    }
+
+    public void train(Instances data, int numThreads) throws Exception {
+        EncodedDataset encoded = new EncodedDataset(data);
+        this.train(encoded, encoded.labeledRows(), numThreads);
+    }
+
+    /**
+     * Trains on rows of data, which must all have a class value. rows is not modified.
+     */
+    public void train(EncodedDataset data, int[] rows, int numThreads) throws Exception {
+        this.header = data.getHeader();
+        this.numClasses = data.numClasses();
+
+        // Draw every tree's seed up front so the result does not depend on scheduling
+        Random seeds = new Random(this.seed);
+        long[] treeSeeds = new long[this.numTrees];
+        for (int t = 0; t < this.numTrees; t++) {
+            treeSeeds[t] = seeds.nextLong();
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<CompiledTree>> futures = new ArrayList<>();
+            for (int t = 0; t < this.numTrees; t++) {
+                long treeSeed = treeSeeds[t];
+                futures.add(pool.submit(() -> this.trainTree(data, rows, treeSeed)));
+            }
+
+            this.trees = new CompiledTree[this.numTrees];
+            for (int t = 0; t < this.numTrees; t++) {
+                this.trees[t] = futures.get(t).get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private CompiledTree trainTree(EncodedDataset data, int[] labeledRows, long treeSeed) {
+        Random random = new Random(treeSeed);
+
+        // Bootstrap: draw as many rows as there are, with replacement
+        int[] weights = new int[data.numRows()];
+        for (int i = 0; i < labeledRows.length; i++) {
+            weights[labeledRows[random.nextInt(labeledRows.length)]]++;
+        }
+        int numDrawn = 0;
+        for (int row : labeledRows) {
+            if (weights[row] > 0) numDrawn++;
+        }
+        int[] rows = new int[numDrawn];
+        int k = 0;
+        for (int row : labeledRows) {
+            if (weights[row] > 0) rows[k++] = row;
+        }
+
+        TrainingContext context = new TrainingContext(data, rows, new TrainingOptions());
+        context.setWeights(weights);
+        if (this.attributesPerSplit > 0) {
+            context.setAttributeSampling(random, this.attributesPerSplit);
+        }
+
+        ID3TreeNode tree = new ID3TreeNode(this.confidenceLevel);
+        tree.train(context);
+        return new CompiledTree(tree, data.getHeader());
+    }
+
+    public int numTrees() {
+        return this.numTrees;
+    }
+
+    public double score(double[] values) {
+        int[] votes = new int[this.numClasses];
+        for (CompiledTree tree : this.trees) {
+            double prediction = tree.score(values);
+            if (!Double.isNaN(prediction)) votes[(int) prediction]++;
+        }
+        return winner(votes, 0, this.numClasses);
+    }
+
+    public double score(Instance instance) {
+        int[] votes = new int[this.numClasses];
+        for (CompiledTree tree : this.trees) {
+            double prediction = tree.score(instance);
+            if (!Double.isNaN(prediction)) votes[(int) prediction]++;
+        }
+        return winner(votes, 0, this.numClasses);
+    }
+
+    /**
+     * Scores the batch one tree at a time, so each tree's arrays stay in cache while it
+     * sees every row, and tallies the votes in one flat array.
+     */
+    public void score(Instance[] instances, int size, double[] predictions) {
+        int numClasses = this.numClasses;
+        int[] votes = new int[size * numClasses];
+        for (CompiledTree tree : this.trees) {
+            for (int i = 0; i < size; i++) {
+                double prediction = tree.score(instances[i]);
+                if (!Double.isNaN(prediction)) votes[i * numClasses + (int) prediction]++;
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            predictions[i] = winner(votes, i * numClasses, numClasses);
+        }
+    }
+
+    public void score(double[][] rows, int size, double[] predictions) {
+        int numClasses = this.numClasses;
+        int[] votes = new int[size * numClasses];
+        for (CompiledTree tree : this.trees) {
+            for (int i = 0; i < size; i++) {
+                double prediction = tree.score(rows[i]);
+                if (!Double.isNaN(prediction)) votes[i * numClasses + (int) prediction]++;
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            predictions[i] = winner(votes, i * numClasses, numClasses);
+        }
+    }
+
+    // The class with the most votes, ties going to the lowest class. NaN if no tree voted
+    private static double winner(int[] votes, int offset, int numClasses) {
+        int best = -1;
+        int bestVotes = 0;
+        for (int c = 0; c < numClasses; c++) {
+            if (votes[offset + c] > bestVotes) {
+                bestVotes = votes[offset + c];
+                best = c;
+            }
+        }
+        return best == -1 ? Double.NaN : best;
+    }
+
+    public Instances getHeader() {
+        return this.header;
+    }
+}
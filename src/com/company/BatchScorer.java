@@ -0,0 +1,128 @@
+package com.company;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Scores an ARFF file of any size against an already trained tree. Rows are read
+ * incrementally in chunks, chunks are scored on a fixed pool of workers, and predictions
+ * are written one per line in input order. At most two chunks per worker are held in
+ * memory at once, so memory use does not depend on the size of the input.
+ */
+public class BatchScorer {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    private TreeScorer scorer;
+    private int numThreads;
+    private int chunkSize;
+
+    public BatchScorer(TreeScorer scorer, int numThreads, int chunkSize) {
+        if (numThreads < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Threads and chunk size must be at least 1");
+        }
+        this.scorer = scorer;
+        this.numThreads = numThreads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Scores every row of inputPath and writes the predicted class labels to outputPath.
+     * Returns the number of rows scored.
+     */
+    public long score(String inputPath, String outputPath) throws Exception {
+
+        ConverterUtils.DataSource source = new ConverterUtils.DataSource(inputPath);
+        Instances structure = source.getStructure();
+        if (structure.classIndex() == -1)
+            structure.setClassIndex(structure.numAttributes() - 1);
+        checkHeader(this.scorer.getHeader(), structure);
+
+        Attribute classAttribute = structure.classAttribute();
+        int maxInFlight = 2 * this.numThreads;
+        Deque<Future<double[]>> inFlight = new ArrayDeque<>();
+        ExecutorService pool = Executors.newFixedThreadPool(this.numThreads);
+
+        long numRows = 0;
+        long start = System.nanoTime();
+        try (Writer out = new BufferedWriter(new FileWriter(outputPath))) {
+            while (source.hasMoreElements(structure)) {
+                Instance[] chunk = new Instance[this.chunkSize];
+                int size = 0;
+                while (size < this.chunkSize && source.hasMoreElements(structure)) {
+                    chunk[size++] = source.nextElement(structure);
+                }
+
+                // Wait for the oldest chunk before reading further ahead than the workers can keep up with
+                if (inFlight.size() == maxInFlight) {
+                    numRows += write(inFlight.removeFirst(), classAttribute, out);
+                }
+
+                Instance[] rows = chunk;
+                int numInChunk = size;
+                inFlight.addLast(pool.submit(() -> this.scoreChunk(rows, numInChunk)));
+            }
+
+            while (!inFlight.isEmpty()) {
+                numRows += write(inFlight.removeFirst(), classAttribute, out);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println("Scored " + numRows + " rows in " + String.format("%.3f", seconds) + "s ("
+                + String.format("%.0f", numRows / Math.max(seconds, 1e-9)) + " rows/sec)");
+        return numRows;
+    }
+
+    private double[] scoreChunk(Instance[] rows, int size) {
+        double[] predictions = new double[size];
+        this.scorer.score(rows, size, predictions);
+        return predictions;
+    }
+
+    private static int write(Future<double[]> chunk, Attribute classAttribute, Writer out) throws IOException, InterruptedException, ExecutionException {
+        double[] predictions = chunk.get();
+        for (double prediction : predictions) {
+            out.write(Double.isNaN(prediction) ? "?" : classAttribute.value((int) prediction));
+            out.write('\n');
+        }
+        return predictions.length;
+    }
+
+    /**
+     * Makes sure rows laid out like data can be fed to a scorer built for header.
+     */
+    static void checkHeader(Instances header, Instances data) {
+        if (header.numAttributes() != data.numAttributes()) {
+            throw new IllegalArgumentException("Expected " + header.numAttributes() + " attributes but found " + data.numAttributes());
+        }
+
+        for (int j = 0; j < header.numAttributes(); j++) {
+            Attribute expected = header.attribute(j);
+            Attribute actual = data.attribute(j);
+            if (!expected.name().equals(actual.name()) || expected.numValues() != actual.numValues()) {
+                throw new IllegalArgumentException("Attribute " + j + " is " + actual.name() + " but the model expects " + expected.name());
+            }
+            for (int k = 0; k < expected.numValues(); k++) {
+                if (!expected.value(k).equals(actual.value(k))) {
+                    throw new IllegalArgumentException("Attribute " + expected.name() + " has value " + actual.value(k) + " where the model expects " + expected.value(k));
+                }
+            }
+        }
+    }
+}
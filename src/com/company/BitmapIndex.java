@@ -0,0 +1,113 @@
+package com.company;
+
+import java.util.Arrays;
+
+/**
+ * One RowBitmap per value of every nominal attribute, missing included, and one per class,
+ * over the rows a tree is trained on. A node that holds its own rows as a bitmap can then
+ * fill a contingency cell with a single intersection count instead of visiting its rows,
+ * which pays off when nodes are large and attributes and classes have few values.
+ */
+class BitmapIndex {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private static final int BITSET_WORDS = 1024;
+
+    private int numClasses;
+    private RowBitmap[][] valueRows;
+    private RowBitmap[] classRows;
+    private long[] attributeCosts;
+    private int numChunks;
+
+    public BitmapIndex(EncodedDataset data, int[] rows) {
+        int[] sorted = rows.clone();
+        Arrays.sort(sorted);
+
+        int numAttributes = data.numAttributes();
+        this.numClasses = data.numValues(data.classIndex());
+        this.valueRows = new RowBitmap[numAttributes][];
+        this.attributeCosts = new long[numAttributes];
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || (sorted[i] >>> 16) != (sorted[i - 1] >>> 16)) this.numChunks++;
+        }
+
+        for (int j = 0; j < numAttributes; j++) {
+            if (j == data.classIndex() || data.isNumeric(j)) continue;
+            this.valueRows[j] = bitmapsByCode(data, j, sorted);
+            for (RowBitmap bitmap : this.valueRows[j]) {
+                this.attributeCosts[j] += bitmap.intersectionCost();
+            }
+        }
+        RowBitmap[] byClass = bitmapsByCode(data, data.classIndex(), sorted);
+        this.classRows = Arrays.copyOfRange(byClass, 1, byClass.length);
+    }
+
+    // Counting sort of ascending rows by code keeps each code's rows ascending. Slot 0 holds missing values
+    private static RowBitmap[] bitmapsByCode(EncodedDataset data, int attrIndex, int[] sorted) {
+        int numValues = data.numValues(attrIndex);
+        int[] starts = new int[numValues + 2];
+        for (int row : sorted) {
+            starts[data.code(attrIndex, row) + 2]++;
+        }
+        for (int slot = 0; slot <= numValues; slot++) {
+            starts[slot + 1] += starts[slot];
+        }
+
+        int[] byCode = new int[sorted.length];
+        int[] next = Arrays.copyOf(starts, numValues + 1);
+        for (int row : sorted) {
+            byCode[next[data.code(attrIndex, row) + 1]++] = row;
+        }
+
+        RowBitmap[] bitmaps = new RowBitmap[numValues + 1];
+        for (int slot = 0; slot <= numValues; slot++) {
+            bitmaps[slot] = RowBitmap.ofSorted(byCode, starts[slot], starts[slot + 1]);
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Rows taking each code of the attribute, indexed by code + 1 so that slot 0 holds the
+     * rows where it is missing. Null for numeric attributes and the class.
+     */
+    public RowBitmap[] getValueRows(int attrIndex) {
+        return this.valueRows[attrIndex];
+    }
+
+    public RowBitmap getClassRows(int classCode) {
+        return this.classRows[classCode];
+    }
+
+    /**
+     * Rough cost, in the same units as one row visit per candidate, of counting numRows rows
+     * against the candidates with intersections. Every class costs one pass over the node's
+     * bitmap plus one intersection with each value bitmap of each candidate.
+     */
+    public long countingCost(int numRows, boolean[] excludedAttributes) {
+        long nodeCost = Math.min(numRows, (long) this.numChunks * BITSET_WORDS);
+        long cost = nodeCost;
+        for (int j = 0; j < this.valueRows.length; j++) {
+            if (this.valueRows[j] != null && !excludedAttributes[j]) cost += this.attributeCosts[j];
+        }
+        return cost * this.numClasses;
+    }
+
+    /**
+     * Same estimate as countingCost for the root of a tree over numRows rows, made before
+     * any bitmap exists by assuming every value is equally common, so building the index
+     * can be skipped when it would never be used.
+     */
+    public static long estimateCountingCost(EncodedDataset data, int numRows, boolean[] excludedAttributes) {
+        long numChunks = (numRows + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        long chunkCost = numChunks * BITSET_WORDS;
+        long cost = Math.min(numRows, chunkCost);
+        for (int j = 0; j < data.numAttributes(); j++) {
+            if (j == data.classIndex() || data.isNumeric(j) || excludedAttributes[j]) continue;
+            int numSlots = data.numValues(j) + 1;
+            long slotRows = numRows / numSlots;
+            cost += numSlots * (slotRows > (long) RowBitmap.ARRAY_MAX * numChunks ? chunkCost : slotRows);
+        }
+        return cost * data.numValues(data.classIndex());
+    }
+}
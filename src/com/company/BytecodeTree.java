@@ -0,0 +1,177 @@
+package com.company;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A CompiledTree turned into a generated class whose code is the tree itself, nested
+ * switches and compares the JIT can inline and branch predict, in place of a loop over
+ * the node arrays. Classes are cached by the content of the tree, so compiling the same
+ * model again, or another copy of it, reuses the class already loaded. Each class has a
+ * loader of its own and is unloaded once it drops out of the cache and is no longer used.
+ * Trees too big for one class file are left to CompiledTree.
+ */
+public final class BytecodeTree implements TreeScorer {
+
+    public static final int CACHE_SIZE = 32;
+
+    private static final AtomicInteger numClasses = new AtomicInteger();
+
+    private static final Map<ModelKey, ToDoubleFunction<Object>> cache = Collections.synchronizedMap(
+            new LinkedHashMap<ModelKey, ToDoubleFunction<Object>>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<ModelKey, ToDoubleFunction<Object>> eldest) {
+                    return this.size() > CACHE_SIZE;
+                }
+            });
+
+    private final Instances header;
+    private final ToDoubleFunction<Object> function;
+
+    private BytecodeTree(Instances header, ToDoubleFunction<Object> function) {
+        this.header = header;
+        this.function = function;
+    }
+
+    /**
+     * Compiles the tree, throwing IllegalStateException when its code does not fit in a
+     * class file.
+     */
+    public static BytecodeTree compile(CompiledTree tree) {
+        ModelKey key = new ModelKey(tree);
+        ToDoubleFunction<Object> function = cache.get(key);
+        if (function == null) {
+            function = define(tree);
+            cache.put(key, function);
+        }
+        return new BytecodeTree(tree.getHeader(), function);
+    }
+
+    /**
+     * Compiles the tree for rows laid out like header and checks that it predicts exactly
+     * what ID3TreeNode.evaluateInstance does for every row of validation, throwing
+     * IllegalStateException at the first row where they differ. A tree whose code does not
+     * fit in a class file is returned as the CompiledTree it would have been generated from,
+     * so callers can tell generated code was used by the result being a BytecodeTree.
+     */
+    public static TreeScorer compile(ID3TreeNode root, Instances header, Instances validation) {
+        CompiledTree compiled = new CompiledTree(root, header);
+        BytecodeTree tree;
+        try {
+            tree = compile(compiled);
+        } catch (IllegalStateException e) {
+            return compiled;
+        }
+        tree.verify(root, validation);
+        return tree;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ToDoubleFunction<Object> define(CompiledTree tree) {
+        String name = BytecodeTree.class.getPackage().getName() + ".GeneratedTree" + numClasses.incrementAndGet();
+        TreeClassGenerator generator = new TreeClassGenerator(tree, name);
+        byte[] bytes = generator.generate();
+        try {
+            Class<?> generated = new GeneratedClassLoader(BytecodeTree.class.getClassLoader()).define(name, bytes);
+            generated.getField(TreeClassGenerator.THRESHOLDS_FIELD).set(null, generator.getThresholds());
+            generated.getField(TreeClassGenerator.KEYS_FIELD).set(null, generator.getKeys());
+            return (ToDoubleFunction<Object>) generated.getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalStateException("Could not load the class generated for the tree", e);
+        }
+    }
+
+    private void verify(ID3TreeNode root, Instances validation) {
+        for (int i = 0; i < validation.size(); i++) {
+            Instance instance = validation.get(i);
+            double expected = root.evaluateInstance(instance);
+            double fromInstance = this.score(instance);
+            double fromValues = this.score(instance.toDoubleArray());
+            if (Double.compare(expected, fromInstance) != 0 || Double.compare(expected, fromValues) != 0) {
+                throw new IllegalStateException("Generated scorer predicts " + fromInstance + " for row " + i + " where the tree predicts " + expected);
+            }
+        }
+    }
+
+    public double score(double[] values) {
+        return this.function.applyAsDouble(values);
+    }
+
+    public double score(Instance instance) {
+        return this.function.applyAsDouble(instance);
+    }
+
+    public Instances getHeader() {
+        return this.header;
+    }
+
+    private static class GeneratedClassLoader extends ClassLoader {
+
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return this.defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Identifies a tree by its node arrays, which are all the generated code depends on.
+     */
+    private static class ModelKey {
+
+        private int[] nodeAttribute;
+        private double[] nodeClass;
+        private int[] childOffset;
+        private int[] childCount;
+        private int[] fallbackChild;
+        private byte[] nodeKind;
+        private int[] childNodes;
+        private double[] childKeys;
+        private int hash;
+
+        ModelKey(CompiledTree tree) {
+            this.nodeAttribute = tree.getNodeAttribute();
+            this.nodeClass = tree.getNodeClass();
+            this.childOffset = tree.getChildOffset();
+            this.childCount = tree.getChildCount();
+            this.fallbackChild = tree.getFallbackChild();
+            this.nodeKind = tree.getNodeKind();
+            this.childNodes = tree.getChildNodes();
+            this.childKeys = tree.getChildKeys();
+
+            int hash = Arrays.hashCode(this.nodeAttribute);
+            hash = 31 * hash + Arrays.hashCode(this.nodeClass);
+            hash = 31 * hash + Arrays.hashCode(this.fallbackChild);
+            hash = 31 * hash + Arrays.hashCode(this.nodeKind);
+            hash = 31 * hash + Arrays.hashCode(this.childNodes);
+            hash = 31 * hash + Arrays.hashCode(this.childKeys);
+            this.hash = hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof ModelKey)) return false;
+            ModelKey other = (ModelKey) o;
+            return this.hash == other.hash
+                    && Arrays.equals(this.nodeAttribute, other.nodeAttribute)
+                    && Arrays.equals(this.nodeClass, other.nodeClass)
+                    && Arrays.equals(this.childOffset, other.childOffset)
+                    && Arrays.equals(this.childCount, other.childCount)
+                    && Arrays.equals(this.fallbackChild, other.fallbackChild)
+                    && Arrays.equals(this.nodeKind, other.nodeKind)
+                    && Arrays.equals(this.childNodes, other.childNodes)
+                    && Arrays.equals(this.childKeys, other.childKeys);
+        }
+
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.company;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chi squared distribution function and its inverse, for critical values at any
+ * confidence and any number of degrees of freedom. Inverses are found by bisection on
+ * the regularized lower incomplete gamma function and cached, so after the first lookup
+ * for a given pair a critical value costs one map get.
+ */
+public final class ChiSquareDistribution {
+
+    private static final int MAX_ITERATIONS = 500;
+    private static final double EPSILON = 1e-14;
+
+    private static final ConcurrentHashMap<Key, Double> criticalValues = new ConcurrentHashMap<>();
+
+    private ChiSquareDistribution() {
+    }
+
+    /**
+     * The value a chi squared statistic with degreesOfFreedom must exceed to be significant
+     * at the given confidence, e.g. 3.84 for 1 degree of freedom at 0.95.
+     */
+    public static double criticalValue(int degreesOfFreedom, double confidence) {
+        if (degreesOfFreedom < 1) {
+            throw new IllegalArgumentException("Degrees of freedom must be at least 1, got " + degreesOfFreedom);
+        }
+        if (!(confidence > 0.0 && confidence < 1.0)) {
+            throw new IllegalArgumentException("Confidence must be between 0 and 1, got " + confidence);
+        }
+
+        return criticalValues.computeIfAbsent(new Key(degreesOfFreedom, confidence), key -> inverseCdf(key.degreesOfFreedom, key.confidence));
+    }
+
+    /**
+     * Probability that a chi squared variable with degreesOfFreedom is at most x.
+     */
+    public static double cdf(double x, int degreesOfFreedom) {
+        if (x <= 0.0) {
+            return 0.0;
+        }
+        return regularizedGammaP(degreesOfFreedom / 2.0, x / 2.0);
+    }
+
+    private static double inverseCdf(int degreesOfFreedom, double p) {
+        // The mean is degreesOfFreedom, so double from there until the answer is bracketed
+        double low = 0.0;
+        double high = Math.max(1.0, degreesOfFreedom);
+        while (cdf(high, degreesOfFreedom) < p) {
+            low = high;
+            high *= 2.0;
+        }
+
+        for (int i = 0; i < MAX_ITERATIONS && high - low > EPSILON * high; i++) {
+            double mid = 0.5 * (low + high);
+            if (cdf(mid, degreesOfFreedom) < p) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return 0.5 * (low + high);
+    }
+
+    private static double regularizedGammaP(double a, double x) {
+        if (x < a + 1.0) {
+            // Series expansion converges quickly below the mean
+            double term = 1.0 / a;
+            double sum = term;
+            for (int n = 1; n < MAX_ITERATIONS; n++) {
+                term *= x / (a + n);
+                sum += term;
+                if (Math.abs(term) < Math.abs(sum) * EPSILON) break;
+            }
+            return sum * Math.exp(-x + a * Math.log(x) - logGamma(a));
+        }
+
+        // Otherwise use the continued fraction for the upper tail (modified Lentz)
+        double tiny = 1e-300;
+        double b = x + 1.0 - a;
+        double c = 1.0 / tiny;
+        double d = 1.0 / b;
+        double h = d;
+        for (int n = 1; n < MAX_ITERATIONS; n++) {
+            double an = -n * (n - a);
+            b += 2.0;
+            d = an * d + b;
+            if (Math.abs(d) < tiny) d = tiny;
+            c = b + an / c;
+            if (Math.abs(c) < tiny) c = tiny;
+            d = 1.0 / d;
+            double delta = d * c;
+            h *= delta;
+            if (Math.abs(delta - 1.0) < EPSILON) break;
+        }
+        return 1.0 - Math.exp(-x + a * Math.log(x) - logGamma(a)) * h;
+    }
+
+    // Lanczos approximation, good to about 15 significant digits
+    private static final double[] LANCZOS = {
+            0.99999999999980993, 676.5203681218851, -1259.1392167224028, 771.32342877765313,
+            -176.61502916214059, 12.507343278686905, -0.13857109526572012,
+            9.9843695780195716e-6, 1.5056327351493116e-7
+    };
+
+    private static double logGamma(double x) {
+        if (x < 0.5) {
+            return Math.log(Math.PI / Math.abs(Math.sin(Math.PI * x))) - logGamma(1.0 - x);
+        }
+        x -= 1.0;
+        double sum = LANCZOS[0];
+        for (int i = 1; i < LANCZOS.length; i++) {
+            sum += LANCZOS[i] / (x + i);
+        }
+        double t = x + 7.5;
+        return 0.5 * Math.log(2.0 * Math.PI) + (x + 0.5) * Math.log(t) - t + Math.log(sum);
+    }
+
+    private static final class Key {
+
+        private final int degreesOfFreedom;
+        private final double confidence;
+
+        Key(int degreesOfFreedom, double confidence) {
+            this.degreesOfFreedom = degreesOfFreedom;
+            this.confidence = confidence;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return this.degreesOfFreedom == other.degreesOfFreedom && Double.compare(this.confidence, other.confidence) == 0;
+        }
+
+        public int hashCode() {
+            return 31 * this.degreesOfFreedom + Double.hashCode(this.confidence);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.company;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A trained ID3TreeNode tree flattened into primitive arrays for scoring. Split attributes
+ * are resolved to header indices once, children are found by indexing with the value code,
+ * and the fallback child for missing or unseen values is picked at compile time, so scoring
+ * a row allocates nothing and never compares attribute names.
+ *
+ * Nodes are numbered in preorder with the root at 0. A node's children sit in one of
+ * three layouts, recorded in nodeKind: INDEXED by nominal value code, KEYED by sorted
+ * value for other attributes, or THRESHOLD, where slot 0 takes values at or below
+ * childKeys[offset] and slot 1 the rest.
+ */
+public final class CompiledTree implements TreeScorer {
+
+    public static final int LEAF = -1;
+    public static final int NO_CHILD = -1;
+
+    public static final byte INDEXED = 0;
+    public static final byte KEYED = 1;
+    public static final byte THRESHOLD = 2;
+
+    private final Instances header;
+    private final int[] nodeAttribute;
+    private final double[] nodeClass;
+    private final int[] childOffset;
+    private final int[] childCount;
+    private final int[] fallbackChild;
+    private final byte[] nodeKind;
+    private final int[] childNodes;
+    private final double[] childKeys;
+
+    public CompiledTree(ID3TreeNode root, Instances header) {
+        this.header = new Instances(header, 0);
+
+        List<ID3TreeNode> nodes = new ArrayList<>();
+        Map<ID3TreeNode, Integer> ids = new IdentityHashMap<>();
+        collect(root, nodes, ids);
+
+        int numNodes = nodes.size();
+        this.nodeAttribute = new int[numNodes];
+        this.nodeClass = new double[numNodes];
+        this.childOffset = new int[numNodes];
+        this.childCount = new int[numNodes];
+        this.fallbackChild = new int[numNodes];
+        this.nodeKind = new byte[numNodes];
+
+        int numSlots = 0;
+        for (int n = 0; n < numNodes; n++) {
+            ID3TreeNode node = nodes.get(n);
+            Double classValue = node.getLeafClassValue();
+            if (classValue != null || node.getAttribute() == null) {
+                this.nodeAttribute[n] = LEAF;
+                this.nodeClass[n] = classValue == null ? Double.NaN : classValue;
+                this.fallbackChild[n] = NO_CHILD;
+                continue;
+            }
+
+            Attribute attr = this.header.attribute(node.getAttribute().name());
+            if (attr == null) {
+                throw new IllegalArgumentException("Header has no attribute named " + node.getAttribute().name());
+            }
+            this.nodeAttribute[n] = attr.index();
+            this.nodeClass[n] = Double.NaN;
+            this.childOffset[n] = numSlots;
+            if (node.getThreshold() != null) {
+                this.nodeKind[n] = THRESHOLD;
+                this.childCount[n] = 2;
+            } else if (attr.isNominal()) {
+                this.nodeKind[n] = INDEXED;
+                this.childCount[n] = attr.numValues();
+            } else {
+                this.nodeKind[n] = KEYED;
+                this.childCount[n] = node.getChildren().size();
+            }
+            numSlots += this.childCount[n];
+        }
+
+        this.childNodes = new int[numSlots];
+        this.childKeys = new double[numSlots];
+        for (int n = 0; n < numNodes; n++) {
+            if (this.nodeAttribute[n] == LEAF) continue;
+
+            ID3TreeNode node = nodes.get(n);
+            Double fallbackValue = node.getFallbackAttrValue();
+            ID3TreeNode fallback = fallbackValue == null ? null : node.getChild(fallbackValue.intValue());
+            this.fallbackChild[n] = fallback == null ? NO_CHILD : ids.get(fallback);
+
+            int offset = this.childOffset[n];
+            if (this.nodeKind[n] == THRESHOLD) {
+                for (int side = 0; side < 2; side++) {
+                    ID3TreeNode child = node.getChild(side);
+                    this.childNodes[offset + side] = child == null ? this.fallbackChild[n] : ids.get(child);
+                    this.childKeys[offset + side] = node.getThreshold();
+                }
+            } else if (this.nodeKind[n] == INDEXED) {
+                // Every code gets a slot, unseen ones go straight to the fallback
+                Arrays.fill(this.childNodes, offset, offset + this.childCount[n], this.fallbackChild[n]);
+                for (int code = 0; code < Math.min(node.numChildSlots(), this.childCount[n]); code++) {
+                    ID3TreeNode child = node.getChild(code);
+                    if (child != null) {
+                        this.childNodes[offset + code] = ids.get(child);
+                        this.childKeys[offset + code] = code;
+                    }
+                }
+            } else {
+                Map<Double, ID3TreeNode> children = node.getChildren();
+                int k = offset;
+                for (Double key : new TreeSet<>(children.keySet())) {
+                    this.childNodes[k] = ids.get(children.get(key));
+                    this.childKeys[k] = key;
+                    k++;
+                }
+            }
+        }
+    }
+
+    private static void collect(ID3TreeNode node, List<ID3TreeNode> nodes, Map<ID3TreeNode, Integer> ids) {
+        ids.put(node, nodes.size());
+        nodes.add(node);
+        if (node.getLeafClassValue() != null) {
+            return;
+        }
+
+        for (int code = 0; code < node.numChildSlots(); code++) {
+            ID3TreeNode child = node.getChild(code);
+            if (child != null) collect(child, nodes, ids);
+        }
+    }
+
+    private int child(int node, double value) {
+        int count = this.childCount[node];
+        int offset = this.childOffset[node];
+        if (Double.isNaN(value)) {
+            return this.fallbackChild[node];
+        }
+
+        byte kind = this.nodeKind[node];
+        if (kind == THRESHOLD) {
+            return value <= this.childKeys[offset] ? this.childNodes[offset] : this.childNodes[offset + 1];
+        }
+        if (kind == KEYED) {
+            // Non-nominal values are matched against the sorted values seen in training
+            int k = Arrays.binarySearch(this.childKeys, offset, offset + count, value);
+            return k >= 0 ? this.childNodes[k] : this.fallbackChild[node];
+        }
+
+        int code = (int) value;
+        if (code < 0 || code >= count) {
+            return this.fallbackChild[node];
+        }
+        return this.childNodes[offset + code];
+    }
+
+    public double score(double[] values) {
+        int node = 0;
+        while (node != NO_CHILD) {
+            int attributeIndex = this.nodeAttribute[node];
+            if (attributeIndex == LEAF) {
+                return this.nodeClass[node];
+            }
+            node = this.child(node, values[attributeIndex]);
+        }
+        return Double.NaN;
+    }
+
+    public double score(Instance instance) {
+        int node = 0;
+        while (node != NO_CHILD) {
+            int attributeIndex = this.nodeAttribute[node];
+            if (attributeIndex == LEAF) {
+                return this.nodeClass[node];
+            }
+            node = this.child(node, instance.value(attributeIndex));
+        }
+        return Double.NaN;
+    }
+
+    public Instances getHeader() {
+        return this.header;
+    }
+
+    // Raw arrays for ModelFile. Callers must not modify them.
+
+    int[] getNodeAttribute() {
+        return this.nodeAttribute;
+    }
+
+    double[] getNodeClass() {
+        return this.nodeClass;
+    }
+
+    int[] getChildOffset() {
+        return this.childOffset;
+    }
+
+    int[] getChildCount() {
+        return this.childCount;
+    }
+
+    int[] getFallbackChild() {
+        return this.fallbackChild;
+    }
+
+    byte[] getNodeKind() {
+        return this.nodeKind;
+    }
+
+    int[] getChildNodes() {
+        return this.childNodes;
+    }
+
+    double[] getChildKeys() {
+        return this.childKeys;
+    }
+
+    public int numNodes() {
+        return this.nodeAttribute.length;
+    }
+}
@@ -0,0 +1,422 @@
+package com.company;
+
+import weka.core.Instance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Attribute value by class counts for every candidate attribute of a node, filled in one
+ * pass over the node's rows or from the row bitmaps of a BitmapIndex. Each attribute gets a flat int table laid out as
+ * [(valueCode + 1) * numClasses + classCode], with the first numClasses slots holding
+ * the rows where the value is missing.
+ *
+ * Missing values are imputed the same way training always has: the most common value of
+ * the attribute among rows of the same class, or failing that the most common value for
+ * any class. Those modes come straight out of the tables, so no second pass is needed.
+ */
+class ContingencyTables {
+
+    private EncodedDataset data;
+    private int[] weights;
+    private int[] numValues;
+    private int numClasses;
+    private int[] candidates;
+    private int[][] counts;
+    private int[][] imputedCodes;
+    private int[] backupCodes;
+    private double[] gains;
+    private int[] classCounts;
+    private int total;
+    private boolean classCountsKnown;
+    private double tableEntropy;
+
+    public ContingencyTables(EncodedDataset data, boolean[] usedAttributes) {
+        this(numValuesOf(data), data.classIndex(), usedAttributes);
+        this.data = data;
+    }
+
+    /**
+     * Tables for rows whose class counts are already known, typically from the parent's
+     * tables, so counting can skip the class column.
+     */
+    public ContingencyTables(EncodedDataset data, boolean[] usedAttributes, int[] classCounts) {
+        this(data, usedAttributes, classCounts, null);
+    }
+
+    /**
+     * Tables where each row counts as many times as its weight, indexed by row. A null
+     * weights array counts every row once.
+     */
+    public ContingencyTables(EncodedDataset data, boolean[] usedAttributes, int[] classCounts, int[] weights) {
+        this(data, usedAttributes);
+        this.weights = weights;
+        if (classCounts != null) {
+            System.arraycopy(classCounts, 0, this.classCounts, 0, this.numClasses);
+            this.classCountsKnown = true;
+        }
+    }
+
+    /**
+     * Tables for rows that are fed in one at a time through add rather than read from an EncodedDataset.
+     */
+    public ContingencyTables(int[] numValues, int classIndex, boolean[] usedAttributes) {
+        int numAttributes = numValues.length;
+        this.numValues = numValues;
+        this.numClasses = numValues[classIndex];
+        this.counts = new int[numAttributes][];
+        this.imputedCodes = new int[numAttributes][];
+        this.backupCodes = new int[numAttributes];
+        this.gains = new double[numAttributes];
+        this.classCounts = new int[this.numClasses];
+
+        int numCandidates = 0;
+        for (int j = 0; j < numAttributes; j++) {
+            if (j != classIndex && !usedAttributes[j]) numCandidates++;
+        }
+        this.candidates = new int[numCandidates];
+        int k = 0;
+        for (int j = 0; j < numAttributes; j++) {
+            if (j != classIndex && !usedAttributes[j]) {
+                this.candidates[k++] = j;
+                this.counts[j] = new int[(numValues[j] + 1) * this.numClasses];
+            }
+        }
+    }
+
+    private static int[] numValuesOf(EncodedDataset data) {
+        int[] numValues = new int[data.numAttributes()];
+        for (int j = 0; j < numValues.length; j++) {
+            numValues[j] = data.numValues(j);
+        }
+        return numValues;
+    }
+
+    /**
+     * Counts rows[from, to). Calling it again adds more rows to the same tables, as long as
+     * the class counts were not given up front.
+     */
+    public void count(int[] rows, int from, int to) {
+        this.countRows(rows, from, to, 0, this.candidates.length, !this.classCountsKnown);
+        this.total = sum(this.classCounts);
+        this.tableEntropy = this.entropy();
+        this.score(0, this.candidates.length);
+    }
+
+    /**
+     * Same result as count, but the candidate attributes are cut into slices that are
+     * counted and scored as separate fork/join tasks. Must be called from inside a pool.
+     */
+    public void countInParallel(int[] rows, int from, int to, int sliceSize) {
+        if (!this.classCountsKnown) {
+            this.countRows(rows, from, to, 0, 0, true);
+        }
+        this.total = sum(this.classCounts);
+        this.tableEntropy = this.entropy();
+
+        List<ForkJoinTask<?>> slices = new ArrayList<>();
+        for (int sliceFrom = 0; sliceFrom < this.candidates.length; sliceFrom += sliceSize) {
+            int start = sliceFrom;
+            int end = Math.min(sliceFrom + sliceSize, this.candidates.length);
+            slices.add(ForkJoinTask.adapt(() -> {
+                this.countRows(rows, from, to, start, end, false);
+                this.score(start, end);
+            }));
+        }
+        ForkJoinTask.invokeAll(slices);
+    }
+
+    /**
+     * Same result as count for the rows in nodeRows, taking every cell as the size of the
+     * intersection of those rows with the class's and the value's bitmaps. Weights are not
+     * supported.
+     */
+    public void count(BitmapIndex index, RowBitmap nodeRows) {
+        for (int c = 0; c < this.numClasses; c++) {
+            RowBitmap classRows = nodeRows.and(index.getClassRows(c));
+            if (!this.classCountsKnown) {
+                this.classCounts[c] = classRows.cardinality();
+            }
+            if (classRows.cardinality() == 0) continue;
+
+            for (int k = 0; k < this.candidates.length; k++) {
+                int j = this.candidates[k];
+                RowBitmap[] valueRows = index.getValueRows(j);
+                for (int slot = 0; slot < valueRows.length; slot++) {
+                    this.counts[j][slot * this.numClasses + c] = classRows.andCardinality(valueRows[slot]);
+                }
+            }
+        }
+        this.total = sum(this.classCounts);
+        this.tableEntropy = this.entropy();
+        this.score(0, this.candidates.length);
+    }
+
+    /**
+     * Counts a single nominal row with a class value. Call finish once every row has been added.
+     */
+    public void add(Instance instance) {
+        int classCode = (int) instance.classValue();
+        this.classCounts[classCode]++;
+        for (int k = 0; k < this.candidates.length; k++) {
+            int j = this.candidates[k];
+            int code = instance.isMissing(j) ? EncodedDataset.MISSING : (int) instance.value(j);
+            this.counts[j][(code + 1) * this.numClasses + classCode]++;
+        }
+        this.total++;
+    }
+
+    public void finish() {
+        this.tableEntropy = this.entropy();
+        this.score(0, this.candidates.length);
+    }
+
+    private static int sum(int[] counts) {
+        int sum = 0;
+        for (int count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    private void countRows(int[] rows, int from, int to, int candidateFrom, int candidateTo, boolean countClasses) {
+        if (this.weights != null) {
+            this.countWeightedRows(rows, from, to, candidateFrom, candidateTo, countClasses);
+            return;
+        }
+
+        EncodedDataset data = this.data;
+        int[] candidates = this.candidates;
+        int[][] counts = this.counts;
+        int numClasses = this.numClasses;
+
+        for (int i = from; i < to; i++) {
+            int row = rows[i];
+            int classCode = data.classCode(row);
+            if (countClasses) {
+                this.classCounts[classCode]++;
+            }
+            for (int k = candidateFrom; k < candidateTo; k++) {
+                int j = candidates[k];
+                // MISSING is -1, so missing values land in the first numClasses slots
+                counts[j][(data.code(j, row) + 1) * numClasses + classCode]++;
+            }
+        }
+    }
+
+    private void countWeightedRows(int[] rows, int from, int to, int candidateFrom, int candidateTo, boolean countClasses) {
+        EncodedDataset data = this.data;
+        int[] weights = this.weights;
+        int[] candidates = this.candidates;
+        int[][] counts = this.counts;
+        int numClasses = this.numClasses;
+
+        for (int i = from; i < to; i++) {
+            int row = rows[i];
+            int weight = weights[row];
+            int classCode = data.classCode(row);
+            if (countClasses) {
+                this.classCounts[classCode] += weight;
+            }
+            for (int k = candidateFrom; k < candidateTo; k++) {
+                int j = candidates[k];
+                counts[j][(data.code(j, row) + 1) * numClasses + classCode] += weight;
+            }
+        }
+    }
+
+    private void score(int candidateFrom, int candidateTo) {
+        for (int k = candidateFrom; k < candidateTo; k++) {
+            int j = this.candidates[k];
+            this.imputedCodes[j] = this.findImputedCodes(j);
+            if (this.hasValues(j)) {
+                this.gains[j] = this.gain(j, this.tableEntropy);
+            }
+        }
+    }
+
+    private int[] findImputedCodes(int attributeIndex) {
+        int[] table = this.counts[attributeIndex];
+        int numValues = this.numValues[attributeIndex];
+
+        int[] modes = new int[this.numClasses];
+        int[] modeCounts = new int[this.numClasses];
+        for (int c = 0; c < this.numClasses; c++) {
+            modes[c] = EncodedDataset.MISSING;
+            for (int code = 0; code < numValues; code++) {
+                int currentCount = table[(code + 1) * this.numClasses + c];
+                if (modeCounts[c] < currentCount) {
+                    modeCounts[c] = currentCount;
+                    modes[c] = code;
+                }
+            }
+        }
+
+        // Classes with no populated values borrow the mode with the highest count from another class
+        int backup = EncodedDataset.MISSING;
+        int backupCount = 0;
+        for (int c = 0; c < this.numClasses; c++) {
+            if (backupCount < modeCounts[c]) {
+                backupCount = modeCounts[c];
+                backup = modes[c];
+            }
+        }
+        for (int c = 0; c < this.numClasses; c++) {
+            if (modes[c] == EncodedDataset.MISSING) modes[c] = backup;
+        }
+        this.backupCodes[attributeIndex] = backup;
+        return modes;
+    }
+
+    public int getTotal() {
+        return this.total;
+    }
+
+    public int[] getClassCounts() {
+        return this.classCounts;
+    }
+
+    /**
+     * Class counts of the rows that take the given value of the attribute, counting imputed missing values.
+     */
+    public int[] getClassCounts(int attributeIndex, int code) {
+        int[] counts = new int[this.numClasses];
+        for (int c = 0; c < this.numClasses; c++) {
+            counts[c] = this.count(attributeIndex, code, c);
+        }
+        return counts;
+    }
+
+    /**
+     * True if the attribute has at least one populated value among the counted rows.
+     */
+    public boolean hasValues(int attributeIndex) {
+        int[] modes = this.imputedCodes[attributeIndex];
+        return modes != null && modes[0] != EncodedDataset.MISSING;
+    }
+
+    /**
+     * The code a missing value of the attribute takes on for a row of the given class.
+     */
+    public int imputedCode(int attributeIndex, int classCode) {
+        return this.imputedCodes[attributeIndex][classCode];
+    }
+
+    /**
+     * The most common value of the attribute over every class, which is where unseen values are sent.
+     */
+    public int backupCode(int attributeIndex) {
+        return this.backupCodes[attributeIndex];
+    }
+
+    /**
+     * Number of rows with the attribute value and class, counting imputed missing values.
+     */
+    public int count(int attributeIndex, int code, int classCode) {
+        int count = this.counts[attributeIndex][(code + 1) * this.numClasses + classCode];
+        if (this.imputedCodes[attributeIndex][classCode] == code) {
+            count += this.counts[attributeIndex][classCode];
+        }
+        return count;
+    }
+
+    public double entropy() {
+        double entropy = 0.0;
+        for (int i = 0; i < this.classCounts.length; i++) {
+            int count = this.classCounts[i];
+            if (count != this.total && count > 0) {
+                double percentage = (double) count / (double) this.total;
+                entropy -= percentage * (Math.log10(percentage) / Math.log10(2));
+            }
+        }
+        return entropy;
+    }
+
+    /**
+     * Chi squared statistic of splitting on the attribute. Only the class values that show
+     * up for an attribute value contribute, as in ID3TreeNode's significance test.
+     */
+    public double chiSquared(int attributeIndex) {
+        double subChiSquared = 0.0;
+        for (int code = 0; code < this.numValues[attributeIndex]; code++) {
+            int actualAttrValueCount = 0;
+            for (int c = 0; c < this.numClasses; c++) {
+                actualAttrValueCount += this.count(attributeIndex, code, c);
+            }
+            if (actualAttrValueCount == 0) continue;
+
+            for (int c = 0; c < this.numClasses; c++) {
+                int actualAttrValueCountForClassValue = this.count(attributeIndex, code, c);
+                int totalCountForClassValue = this.classCounts[c];
+                if (actualAttrValueCountForClassValue > 0 && totalCountForClassValue > 0) {
+                    double expectedAttrValueCountForClassValue = (double) actualAttrValueCount * ((double) totalCountForClassValue / (double) this.total);
+                    subChiSquared += (Math.pow(actualAttrValueCountForClassValue - expectedAttrValueCountForClassValue, 2)/expectedAttrValueCountForClassValue);
+                }
+            }
+        }
+        return subChiSquared;
+    }
+
+    public double gain(int attributeIndex, double tableEntropy) {
+        double gain = 0.0;
+        for (int code = 0; code < this.numValues[attributeIndex]; code++) {
+            int attrCount = 0;
+            for (int c = 0; c < this.numClasses; c++) {
+                attrCount += this.count(attributeIndex, code, c);
+            }
+            if (attrCount == 0) continue;
+
+            double entropy = 0.0;
+            for (int c = 0; c < this.numClasses; c++) {
+                entropy += GainInfo.entropyTerm(this.count(attributeIndex, code, c), attrCount);
+            }
+
+            double prefix = (double) attrCount / (double) this.total;
+            gain += prefix * entropy;
+        }
+
+        return tableEntropy - gain;
+    }
+
+    /**
+     * Information gain of splitting on a candidate attribute that has values.
+     */
+    public double getGain(int attributeIndex) {
+        return this.gains[attributeIndex];
+    }
+
+    /**
+     * Highest gain among the candidates other than bestAttribute, or 0 if there are none.
+     */
+    public double findRunnerUpGain(int bestAttribute) {
+        double runnerUpGain = 0.0;
+        for (int k = 0; k < this.candidates.length; k++) {
+            int j = this.candidates[k];
+            if (j == bestAttribute || !this.hasValues(j)) continue;
+            runnerUpGain = Math.max(runnerUpGain, this.gains[j]);
+        }
+        return runnerUpGain;
+    }
+
+    /**
+     * Returns the candidate attribute with the highest gain, or -1 if none has any values.
+     * Ties go to the attribute that comes first in the dataset, however the counting was split up.
+     */
+    public int findBestAttribute() {
+        int attributeWithHighestGain = -1;
+        double highestGain = -1.0;
+        for (int k = 0; k < this.candidates.length; k++) {
+            int j = this.candidates[k];
+            if (!this.hasValues(j)) continue;
+
+            double currentGain = this.gains[j];
+            if (currentGain > highestGain) {
+                attributeWithHighestGain = j;
+                highestGain = currentGain;
+            }
+        }
+
+        return attributeWithHighestGain;
+    }
+}
@@ -5,50 +5,64 @@ package com.company;
  */
 public class CriticalValuesTable {
 
-    private static double[][] criticalValues;
+    public static final int NO_PRUNING = 2;
+
+    // Confidence for each confidence level, indexed by level
+    private static final double[] confidences = new double[]{0.95, 0.99};
 
     public CriticalValuesTable () {
-        this.criticalValues = new double[][]{
-                { 3.84, 6.64},
-                { 5.99, 9.21},
-                { 7.82, 11.34},
-                { 9.49, 13.28},
-                { 11.07, 15.09},
-                { 12.59, 16.81},
-                { 14.07, 18.48},
-                { 15.51, 20.09},
-                { 16.92, 21.67},
-                { 18.31, 23.21},
-                { 19.68, 24.72},
-                { 21.03, 26.22},
-                { 22.36, 27.69},
-                { 23.68, 29.14},
-                { 25.0, 30.58},
-                { 26.3, 32.0},
-                { 27.59, 33.41},
-                { 28.87, 34.8},
-                { 30.14, 37.57},
-                { 31.41, 37.57},
-                { 32.67, 38.93},
-                { 33.92, 40.29},
-                { 35.17, 41.64},
-                { 36.42, 42.98},
-                { 37.65, 44.31},
-                { 38.88, 45.64},
-                { 40.11, 46.96},
-                { 41.34, 48.28},
-                { 42.56, 49.59},
-                { 43.77, 50.89}
-
-        };
     }
 
     // confidence: use 0 for 95% and 1 for 99%
     public double getChiSquaredValue(int numAttrValues, int confidence) {
-        if (numAttrValues > 30 || numAttrValues < 0 || confidence > 1  || confidence < 0) {
+        return criticalValue(numAttrValues, confidence);
+    }
+
+    /**
+     * Confidence that keeps every split.
+     */
+    public static final double NO_PRUNING_CONFIDENCE = 0.0;
+
+    /**
+     * The confidence a level stands for: 0.95 for 0, 0.99 for 1 and NO_PRUNING_CONFIDENCE
+     * for NO_PRUNING. Throws IllegalArgumentException for any other level.
+     */
+    public static double confidence(int confidenceLevel) {
+        if (confidenceLevel == NO_PRUNING) {
+            return NO_PRUNING_CONFIDENCE;
+        }
+        if (confidenceLevel < 0 || confidenceLevel >= confidences.length) {
+            throw new IllegalArgumentException("Confidence level must be 0, 1 or " + NO_PRUNING + ", got " + confidenceLevel);
+        }
+        return confidences[confidenceLevel];
+    }
+
+    /**
+     * Throws IllegalArgumentException unless confidence is NO_PRUNING_CONFIDENCE or between 0 and 1.
+     */
+    public static void checkConfidence(double confidence) {
+        if (confidence != NO_PRUNING_CONFIDENCE && !(confidence > 0.0 && confidence < 1.0)) {
+            throw new IllegalArgumentException("Confidence must be between 0 and 1, or " + NO_PRUNING_CONFIDENCE + " for no pruning, got " + confidence);
+        }
+    }
+
+    /**
+     * Critical value for a confidence level of 0 (95%) or 1 (99%), or NaN for any other level.
+     * Numbers of attribute values below 1 are treated as 1.
+     */
+    public static double criticalValue(int numAttrValues, int confidenceLevel) {
+        if (confidenceLevel < 0 || confidenceLevel >= confidences.length) {
             return Double.NaN;
         }
 
-        return this.criticalValues[numAttrValues-1][confidence];
+        return criticalValueAt(numAttrValues, confidences[confidenceLevel]);
+    }
+
+    /**
+     * Critical value for any confidence between 0 and 1. Numbers of attribute values below
+     * 1 are treated as 1.
+     */
+    public static double criticalValueAt(int numAttrValues, double confidence) {
+        return ChiSquareDistribution.criticalValue(Math.max(1, numAttrValues), confidence);
     }
 }
@@ -0,0 +1,145 @@
+package com.company;
+
+import weka.core.Instances;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Stratified k-fold cross validation over a grid of confidence levels. The data is
+ * encoded once and every fold is just an array of row indices into it, so no fold copies
+ * any Instances. Each fold and confidence level pair is scored as its own task on a
+ * fixed pool. Over several levels each fold is trained only once and pruned to every
+ * level from there.
+ */
+public class CrossValidation {
+
+    private EncodedDataset data;
+    private int[][] folds;
+    private int numThreads;
+    private TreeCache trees;
+    private long wallNanos;
+
+    public CrossValidation(Instances data, int numFolds, int numThreads, long seed) {
+        this(new EncodedDataset(data), null, numFolds, numThreads, seed);
+    }
+
+    /**
+     * Cross validates over rows of data, which must all have a class value, or over every
+     * labeled row when rows is null. rows is not modified.
+     */
+    public CrossValidation(EncodedDataset data, int[] rows, int numFolds, int numThreads, long seed) {
+        if (numFolds < 2) {
+            throw new IllegalArgumentException("Need at least 2 folds, got " + numFolds);
+        }
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Threads must be at least 1, got " + numThreads);
+        }
+        this.data = data;
+        this.folds = new DatasetSplitter(data, seed).stratifiedFolds(rows != null ? rows : data.labeledRows(), numFolds);
+        this.numThreads = numThreads;
+    }
+
+    public int numFolds() {
+        return this.folds.length;
+    }
+
+    /**
+     * Rows held out for the given fold. Callers must not modify the array.
+     */
+    int[] getFold(int fold) {
+        return this.folds[fold];
+    }
+
+    /**
+     * Cross validates every confidence level and returns one result per level, in the order given.
+     */
+    public List<CrossValidationResult> run(int[] confidenceLevels) throws InterruptedException, ExecutionException {
+        int numFolds = this.folds.length;
+        this.trees = confidenceLevels.length > 1 ? new TreeCache(numFolds * (confidenceLevels.length + 1)) : null;
+        ExecutorService pool = Executors.newFixedThreadPool(this.numThreads);
+        List<List<Future<long[]>>> futures = new ArrayList<>();
+
+        long start = System.nanoTime();
+        try {
+            for (int confidenceLevel : confidenceLevels) {
+                List<Future<long[]>> levelFutures = new ArrayList<>();
+                for (int f = 0; f < numFolds; f++) {
+                    int fold = f;
+                    levelFutures.add(pool.submit(() -> this.runFold(fold, confidenceLevel)));
+                }
+                futures.add(levelFutures);
+            }
+
+            List<CrossValidationResult> results = new ArrayList<>();
+            for (int i = 0; i < confidenceLevels.length; i++) {
+                double[] accuracies = new double[numFolds];
+                long cpuNanos = 0;
+                for (int f = 0; f < numFolds; f++) {
+                    long[] outcome = futures.get(i).get(f).get();
+                    accuracies[f] = (double) outcome[0] / (double) this.folds[f].length;
+                    cpuNanos += outcome[1];
+                }
+                results.add(new CrossValidationResult(confidenceLevels[i], accuracies, cpuNanos));
+            }
+            return results;
+        } finally {
+            this.wallNanos = System.nanoTime() - start;
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Wall clock time the last call to run took.
+     */
+    public long getWallNanos() {
+        return this.wallNanos;
+    }
+
+    // Returns {number of holdout rows predicted correctly, cpu nanos spent}
+    private long[] runFold(int fold, int confidenceLevel) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean measureCpu = threads.isCurrentThreadCpuTimeSupported();
+        long cpuStart = measureCpu ? threads.getCurrentThreadCpuTime() : 0L;
+
+        int trainingSize = 0;
+        for (int f = 0; f < this.folds.length; f++) {
+            if (f != fold) trainingSize += this.folds[f].length;
+        }
+        int[] trainingRows = new int[trainingSize];
+        int k = 0;
+        for (int f = 0; f < this.folds.length; f++) {
+            if (f == fold) continue;
+            System.arraycopy(this.folds[f], 0, trainingRows, k, this.folds[f].length);
+            k += this.folds[f].length;
+        }
+
+        // The cache is only used for a grid, and knows each fold's rows by the fold number
+        ID3TreeNode tree;
+        if (this.trees != null) {
+            tree = this.trees.get(fold, this.data, trainingRows, CriticalValuesTable.confidence(confidenceLevel), new TrainingOptions());
+        } else {
+            tree = new ID3TreeNode(confidenceLevel);
+            tree.train(this.data, trainingRows, new TrainingOptions());
+        }
+        CompiledTree scorer = new CompiledTree(tree, this.data.getHeader());
+
+        long numMatches = 0;
+        double[] values = new double[this.data.numAttributes()];
+        for (int row : this.folds[fold]) {
+            this.data.fillValues(row, values);
+            if (scorer.score(values) == this.data.classCode(row)) {
+                numMatches++;
+            }
+        }
+
+        long cpuNanos = measureCpu ? threads.getCurrentThreadCpuTime() - cpuStart : 0L;
+        return new long[]{numMatches, cpuNanos};
+    }
+}
@@ -0,0 +1,61 @@
+package com.company;
+
+/**
+ * Holdout accuracy of every fold for one confidence level.
+ */
+public class CrossValidationResult {
+
+    private final int confidenceLevel;
+    private final double[] accuracies;
+    private final long cpuNanos;
+
+    CrossValidationResult(int confidenceLevel, double[] accuracies, long cpuNanos) {
+        this.confidenceLevel = confidenceLevel;
+        this.accuracies = accuracies;
+        this.cpuNanos = cpuNanos;
+    }
+
+    public int getConfidenceLevel() {
+        return this.confidenceLevel;
+    }
+
+    public double[] getAccuracies() {
+        return this.accuracies.clone();
+    }
+
+    public double getMean() {
+        double sum = 0.0;
+        for (double accuracy : this.accuracies) {
+            sum += accuracy;
+        }
+        return sum / this.accuracies.length;
+    }
+
+    /**
+     * Sample variance of the fold accuracies, or 0 with a single fold.
+     */
+    public double getVariance() {
+        if (this.accuracies.length < 2) {
+            return 0.0;
+        }
+
+        double mean = this.getMean();
+        double sum = 0.0;
+        for (double accuracy : this.accuracies) {
+            sum += (accuracy - mean) * (accuracy - mean);
+        }
+        return sum / (this.accuracies.length - 1);
+    }
+
+    /**
+     * CPU time spent training and scoring every fold of this setting, summed over threads.
+     */
+    public long getCpuNanos() {
+        return this.cpuNanos;
+    }
+
+    public String toString() {
+        return String.format("confidence %d: accuracy %.4f (variance %.6f) over %d folds, cpu %dms",
+                this.confidenceLevel, this.getMean(), this.getVariance(), this.accuracies.length, this.cpuNanos / 1000000);
+    }
+}
@@ -0,0 +1,780 @@
+package com.company;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads dense ARFF and CSV files straight into an EncodedDataset without creating a single
+ * Instance. The data section is cut into chunks on line boundaries, every chunk is memory
+ * mapped and parsed on its own thread into primitive columns, and the columns are then
+ * stitched together and encoded one attribute per task.
+ *
+ * Anything else, such as sparse rows, instance weights, string, date or relational
+ * attributes, or another file format altogether, is loaded through weka's DataSource.
+ * CSV columns are numeric when every value parses as a number and nominal otherwise,
+ * with values in order of first appearance. The class, the last column, is always nominal.
+ */
+public class DatasetReader {
+
+    public static final int DEFAULT_CHUNK_SIZE = 16 << 20;
+
+    private static final int HEADER_WINDOW = 1 << 20;
+
+    // Every power of ten up to 1e22 is exact as a double
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int k = 1; k < POWERS_OF_TEN.length; k++) {
+            POWERS_OF_TEN[k] = POWERS_OF_TEN[k - 1] * 10.0;
+        }
+    }
+
+    private int numThreads;
+    private int chunkSize;
+
+    public DatasetReader(int numThreads) {
+        this(numThreads, DEFAULT_CHUNK_SIZE);
+    }
+
+    public DatasetReader(int numThreads, int chunkSize) {
+        if (numThreads < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Threads and chunk size must be at least 1");
+        }
+        this.numThreads = numThreads;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Reads the file at path with the class as its last attribute.
+     */
+    public EncodedDataset read(String path) throws Exception {
+        String lowerPath = path.toLowerCase(Locale.ROOT);
+        if (lowerPath.endsWith(".arff") || lowerPath.endsWith(".csv")) {
+            try {
+                return this.readNative(path, lowerPath.endsWith(".csv"));
+            } catch (UnsupportedOperationException e) {
+                // Weka understands more than this reader does, just more slowly
+            }
+        }
+
+        ConverterUtils.DataSource source = new ConverterUtils.DataSource(path);
+        Instances data = source.getDataSet();
+        if (data.classIndex() == -1)
+            data.setClassIndex(data.numAttributes() - 1);
+        return new EncodedDataset(data);
+    }
+
+    private EncodedDataset readNative(String path, boolean isCsv) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(this.numThreads);
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            FileChannel channel = file.getChannel();
+            Header header = isCsv ? readCsvHeader(channel) : readArffHeader(channel);
+            int numAttributes = header.names.size();
+            long[] boundaries = this.findChunkBoundaries(channel, header.dataStart);
+            int numChunks = boundaries.length - 1;
+
+            if (isCsv) {
+                // Types have to be settled before values are parsed, so CSV files are read twice
+                List<Future<boolean[]>> scans = new ArrayList<>();
+                for (int k = 0; k < numChunks; k++) {
+                    MappedByteBuffer buffer = map(channel, boundaries[k], boundaries[k + 1]);
+                    scans.add(pool.submit(() -> findNonNumeric(buffer, numAttributes)));
+                }
+                header.nominal = new boolean[numAttributes];
+                header.nominal[numAttributes - 1] = true;
+                for (Future<boolean[]> scan : scans) {
+                    boolean[] nonNumeric = get(scan);
+                    for (int j = 0; j < numAttributes; j++) {
+                        header.nominal[j] |= nonNumeric[j];
+                    }
+                }
+                header.dictionaries = new ValueDictionary[numAttributes];
+                for (int j = 0; j < numAttributes; j++) {
+                    if (header.nominal[j]) header.dictionaries[j] = new ValueDictionary();
+                }
+            }
+
+            List<Future<Chunk>> parses = new ArrayList<>();
+            for (int k = 0; k < numChunks; k++) {
+                MappedByteBuffer buffer = map(channel, boundaries[k], boundaries[k + 1]);
+                long offset = boundaries[k];
+                parses.add(pool.submit(() -> parseChunk(buffer, offset, header, isCsv)));
+            }
+            Chunk[] chunks = new Chunk[numChunks];
+            int numRows = 0;
+            for (int k = 0; k < numChunks; k++) {
+                chunks[k] = get(parses.get(k));
+                numRows += chunks[k].numRows;
+            }
+
+            // CSV chunks each number nominal values as they meet them, so renumber them in chunk order
+            if (isCsv) {
+                for (Chunk chunk : chunks) {
+                    for (int j = 0; j < numAttributes; j++) {
+                        if (header.nominal[j]) chunk.remapCodes(j, header.dictionaries[j]);
+                    }
+                }
+            }
+
+            Instances instances = header.toInstances(new File(path).getName());
+            EncodedDataset encoded = new EncodedDataset(instances, numRows);
+            List<Future<?>> columns = new ArrayList<>();
+            for (int j = 0; j < numAttributes; j++) {
+                int attrIndex = j;
+                int totalRows = numRows;
+                columns.add(pool.submit(() -> {
+                    if (header.nominal[attrIndex]) {
+                        int[] codes = new int[totalRows];
+                        int row = 0;
+                        for (Chunk chunk : chunks) {
+                            System.arraycopy(chunk.codes[attrIndex], 0, codes, row, chunk.numRows);
+                            row += chunk.numRows;
+                        }
+                        encoded.setNominalColumn(attrIndex, codes);
+                    } else {
+                        double[] values = new double[totalRows];
+                        int row = 0;
+                        for (Chunk chunk : chunks) {
+                            System.arraycopy(chunk.values[attrIndex], 0, values, row, chunk.numRows);
+                            row += chunk.numRows;
+                        }
+                        encoded.setNumericColumn(attrIndex, values);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> column : columns) {
+                get(column);
+            }
+            return encoded;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Rethrows what a task threw, so that unsupported features still reach read's fallback
+    private static <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long from, long to) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+    }
+
+    /**
+     * Offsets cutting [dataStart, end of file) into pieces of about chunkSize bytes, each
+     * moved forward to the start of the next line.
+     */
+    private long[] findChunkBoundaries(FileChannel channel, long dataStart) throws IOException {
+        long size = channel.size();
+        List<Long> boundaries = new ArrayList<>();
+        boundaries.add(dataStart);
+        long position = dataStart;
+        while (size - position > this.chunkSize) {
+            position = nextLineStart(channel, position + this.chunkSize);
+            if (position >= size) break;
+            boundaries.add(position);
+        }
+        boundaries.add(size);
+
+        long[] result = new long[boundaries.size()];
+        for (int k = 0; k < result.length; k++) {
+            result[k] = boundaries.get(k);
+        }
+        return result;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+    }
+
+    private static Header readArffHeader(FileChannel channel) throws IOException {
+        long window = Math.min(channel.size(), HEADER_WINDOW);
+        while (true) {
+            MappedByteBuffer buffer = map(channel, 0, window);
+            Header header = new Header();
+            List<List<String>> nominalValues = new ArrayList<>();
+            int lineStart = 0;
+            while (lineStart < window) {
+                int lineEnd = lineStart;
+                while (lineEnd < window && buffer.get(lineEnd) != '\n') lineEnd++;
+                if (lineEnd == window && window < channel.size()) break;
+
+                String line = decode(buffer, lineStart, lineEnd).trim();
+                String lowerLine = line.toLowerCase(Locale.ROOT);
+                lineStart = lineEnd + 1;
+                if (lowerLine.startsWith("@relation")) {
+                    header.relation = unquote(line.substring("@relation".length()).trim());
+                } else if (lowerLine.startsWith("@attribute")) {
+                    parseAttribute(line.substring("@attribute".length()).trim(), header, nominalValues);
+                } else if (lowerLine.startsWith("@data")) {
+                    header.dataStart = Math.min(lineStart, channel.size());
+                    header.finishArff(nominalValues);
+                    return header;
+                } else if (!line.isEmpty() && !line.startsWith("%")) {
+                    throw new IOException("Unexpected line in ARFF header: " + line);
+                }
+            }
+            if (window == channel.size()) {
+                throw new IOException("ARFF file has no @data section");
+            }
+            window = Math.min(channel.size(), window * 2);
+        }
+    }
+
+    private static void parseAttribute(String declaration, Header header, List<List<String>> nominalValues) throws IOException {
+        int nameEnd;
+        if (declaration.startsWith("'") || declaration.startsWith("\"")) {
+            nameEnd = declaration.indexOf(declaration.charAt(0), 1) + 1;
+        } else {
+            nameEnd = 0;
+            while (nameEnd < declaration.length() && !Character.isWhitespace(declaration.charAt(nameEnd))) nameEnd++;
+        }
+        if (nameEnd <= 0 || nameEnd >= declaration.length()) {
+            throw new IOException("Malformed attribute declaration: " + declaration);
+        }
+        String name = unquote(declaration.substring(0, nameEnd));
+        String type = declaration.substring(nameEnd).trim();
+
+        header.names.add(name);
+        if (type.startsWith("{")) {
+            int close = type.lastIndexOf('}');
+            if (close == -1) {
+                throw new IOException("Unterminated nominal values for attribute " + name);
+            }
+            List<String> values = new ArrayList<>();
+            for (String value : splitQuoted(type.substring(1, close))) {
+                values.add(unquote(value.trim()));
+            }
+            nominalValues.add(values);
+            return;
+        }
+
+        String lowerType = type.toLowerCase(Locale.ROOT);
+        if (lowerType.equals("numeric") || lowerType.equals("real") || lowerType.equals("integer")) {
+            nominalValues.add(null);
+            return;
+        }
+        throw new UnsupportedOperationException("Attribute type " + type);
+    }
+
+    private static Header readCsvHeader(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long lineEnd = nextLineStart(channel, 0);
+        MappedByteBuffer buffer = map(channel, 0, Math.min(lineEnd, size));
+        String line = decode(buffer, 0, buffer.limit()).trim();
+        if (line.isEmpty()) {
+            throw new IOException("CSV file has no header line");
+        }
+
+        Header header = new Header();
+        for (String name : splitQuoted(line)) {
+            header.names.add(unquote(name.trim()));
+        }
+        header.dataStart = Math.min(lineEnd, size);
+        return header;
+    }
+
+    private static List<String> splitQuoted(String text) {
+        List<String> fields = new ArrayList<>();
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == '\\') i++;
+                else if (c == quote) quote = 0;
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ',') {
+                fields.add(text.substring(start, i));
+                start = i + 1;
+            }
+        }
+        fields.add(text.substring(start));
+        return fields;
+    }
+
+    private static String unquote(String text) {
+        if (text.length() >= 2 && (text.charAt(0) == '\'' || text.charAt(0) == '"') && text.charAt(text.length() - 1) == text.charAt(0)) {
+            StringBuilder unquoted = new StringBuilder();
+            for (int i = 1; i < text.length() - 1; i++) {
+                char c = text.charAt(i);
+                if (c == '\\' && i + 1 < text.length() - 1) {
+                    c = text.charAt(++i);
+                }
+                unquoted.append(c);
+            }
+            return unquoted.toString();
+        }
+        return text;
+    }
+
+    private static String decode(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            bytes[i - from] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static boolean[] findNonNumeric(ByteBuffer buffer, int numAttributes) throws IOException {
+        boolean[] nonNumeric = new boolean[numAttributes];
+        FieldCursor cursor = new FieldCursor(buffer);
+        while (cursor.nextLine()) {
+            for (int j = 0; j < numAttributes; j++) {
+                cursor.nextField(j, numAttributes);
+                if (!nonNumeric[j] && !cursor.isMissing() && Double.isNaN(cursor.parseNumber())) {
+                    nonNumeric[j] = true;
+                }
+            }
+            cursor.endLine(numAttributes);
+        }
+        return nonNumeric;
+    }
+
+    private static Chunk parseChunk(ByteBuffer buffer, long offset, Header header, boolean isCsv) throws IOException {
+        int numAttributes = header.names.size();
+        Chunk chunk = new Chunk(header.nominal, Math.max(16, buffer.limit() / (8 * numAttributes + 1)));
+        ValueDictionary[] dictionaries = new ValueDictionary[numAttributes];
+        for (int j = 0; j < numAttributes; j++) {
+            if (!header.nominal[j]) continue;
+            // CSV chunks collect their own values, ARFF ones look them up in the declared ones
+            dictionaries[j] = isCsv ? new ValueDictionary() : header.dictionaries[j];
+        }
+
+        FieldCursor cursor = new FieldCursor(buffer);
+        while (cursor.nextLine()) {
+            int row = chunk.addRow();
+            for (int j = 0; j < numAttributes; j++) {
+                cursor.nextField(j, numAttributes);
+                if (header.nominal[j]) {
+                    int code = EncodedDataset.MISSING;
+                    if (!cursor.isMissing()) {
+                        code = isCsv ? cursor.addTo(dictionaries[j]) : cursor.findIn(dictionaries[j]);
+                        if (code == EncodedDataset.MISSING) {
+                            throw new IOException("Undeclared value " + cursor.text() + " for attribute " + header.names.get(j)
+                                    + " near byte " + (offset + cursor.getLineStart()));
+                        }
+                    }
+                    chunk.codes[j][row] = code;
+                } else {
+                    double value = Double.NaN;
+                    if (!cursor.isMissing()) {
+                        value = cursor.parseNumber();
+                        if (Double.isNaN(value)) {
+                            throw new IOException("Value " + cursor.text() + " of attribute " + header.names.get(j)
+                                    + " is not a number near byte " + (offset + cursor.getLineStart()));
+                        }
+                    }
+                    chunk.values[j][row] = value;
+                }
+            }
+            cursor.endLine(numAttributes);
+        }
+        chunk.dictionaries = dictionaries;
+        return chunk;
+    }
+
+    /**
+     * Attribute names and types from the header, plus where the data starts.
+     */
+    private static class Header {
+
+        private String relation = "data";
+        private List<String> names = new ArrayList<>();
+        private List<List<String>> nominalValues;
+        private boolean[] nominal;
+        private ValueDictionary[] dictionaries;
+        private long dataStart;
+
+        void finishArff(List<List<String>> nominalValues) {
+            int numAttributes = this.names.size();
+            this.nominalValues = nominalValues;
+            this.nominal = new boolean[numAttributes];
+            this.dictionaries = new ValueDictionary[numAttributes];
+            for (int j = 0; j < numAttributes; j++) {
+                List<String> values = nominalValues.get(j);
+                if (values == null) continue;
+                this.nominal[j] = true;
+                this.dictionaries[j] = new ValueDictionary();
+                for (String value : values) {
+                    this.dictionaries[j].add(value.getBytes(StandardCharsets.UTF_8));
+                }
+            }
+        }
+
+        Instances toInstances(String defaultRelation) {
+            ArrayList<Attribute> attributes = new ArrayList<>();
+            for (int j = 0; j < this.names.size(); j++) {
+                if (this.nominal[j]) {
+                    List<String> values = this.nominalValues != null ? this.nominalValues.get(j) : this.dictionaries[j].values();
+                    attributes.add(new Attribute(this.names.get(j), values));
+                } else {
+                    attributes.add(new Attribute(this.names.get(j)));
+                }
+            }
+            Instances instances = new Instances(this.nominalValues != null ? this.relation : defaultRelation, attributes, 0);
+            instances.setClassIndex(attributes.size() - 1);
+            return instances;
+        }
+    }
+
+    /**
+     * One chunk's rows as growable columns.
+     */
+    private static class Chunk {
+
+        private boolean[] nominal;
+        private int[][] codes;
+        private double[][] values;
+        private ValueDictionary[] dictionaries;
+        private int numRows;
+        private int capacity;
+
+        Chunk(boolean[] nominal, int capacity) {
+            this.nominal = nominal;
+            this.codes = new int[nominal.length][];
+            this.values = new double[nominal.length][];
+            this.capacity = capacity;
+            for (int j = 0; j < nominal.length; j++) {
+                if (nominal[j]) this.codes[j] = new int[capacity];
+                else this.values[j] = new double[capacity];
+            }
+        }
+
+        int addRow() {
+            if (this.numRows == this.capacity) {
+                this.capacity *= 2;
+                for (int j = 0; j < this.nominal.length; j++) {
+                    if (this.nominal[j]) this.codes[j] = Arrays.copyOf(this.codes[j], this.capacity);
+                    else this.values[j] = Arrays.copyOf(this.values[j], this.capacity);
+                }
+            }
+            return this.numRows++;
+        }
+
+        void remapCodes(int attrIndex, ValueDictionary global) {
+            ValueDictionary local = this.dictionaries[attrIndex];
+            int[] remap = new int[local.size()];
+            for (int code = 0; code < remap.length; code++) {
+                remap[code] = global.add(local.key(code));
+            }
+            int[] column = this.codes[attrIndex];
+            for (int i = 0; i < this.numRows; i++) {
+                if (column[i] != EncodedDataset.MISSING) column[i] = remap[column[i]];
+            }
+        }
+    }
+
+    /**
+     * Hash map from a value's UTF-8 bytes to its code, numbered in the order values are added,
+     * so lookups can go straight from the mapped file without building a String.
+     */
+    private static class ValueDictionary {
+
+        private byte[][] keys = new byte[16][];
+        private int[] slots = newSlots(32);
+        private int size;
+
+        private static int[] newSlots(int capacity) {
+            int[] slots = new int[capacity];
+            Arrays.fill(slots, -1);
+            return slots;
+        }
+
+        int size() {
+            return this.size;
+        }
+
+        byte[] key(int code) {
+            return this.keys[code];
+        }
+
+        List<String> values() {
+            List<String> values = new ArrayList<>();
+            for (int code = 0; code < this.size; code++) {
+                values.add(new String(this.keys[code], StandardCharsets.UTF_8));
+            }
+            return values;
+        }
+
+        int add(byte[] key) {
+            int code = this.find(ByteBuffer.wrap(key), 0, key.length);
+            if (code != EncodedDataset.MISSING) {
+                return code;
+            }
+            if (this.size == this.keys.length) {
+                this.keys = Arrays.copyOf(this.keys, this.size * 2);
+            }
+            if (2 * (this.size + 1) > this.slots.length) {
+                this.slots = newSlots(this.slots.length * 2);
+                for (int k = 0; k < this.size; k++) {
+                    this.insert(ByteBuffer.wrap(this.keys[k]), 0, this.keys[k].length, k);
+                }
+            }
+            this.keys[this.size] = key;
+            this.insert(ByteBuffer.wrap(key), 0, key.length, this.size);
+            return this.size++;
+        }
+
+        private void insert(ByteBuffer buffer, int from, int to, int code) {
+            int mask = this.slots.length - 1;
+            int slot = hash(buffer, from, to) & mask;
+            while (this.slots[slot] != -1) slot = (slot + 1) & mask;
+            this.slots[slot] = code;
+        }
+
+        int find(ByteBuffer buffer, int from, int to) {
+            int mask = this.slots.length - 1;
+            int slot = hash(buffer, from, to) & mask;
+            while (this.slots[slot] != -1) {
+                byte[] key = this.keys[this.slots[slot]];
+                if (key.length == to - from && matches(key, buffer, from)) {
+                    return this.slots[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return EncodedDataset.MISSING;
+        }
+
+        private static boolean matches(byte[] key, ByteBuffer buffer, int from) {
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != buffer.get(from + i)) return false;
+            }
+            return true;
+        }
+
+        private static int hash(ByteBuffer buffer, int from, int to) {
+            int hash = 1;
+            for (int i = from; i < to; i++) {
+                hash = 31 * hash + buffer.get(i);
+            }
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    /**
+     * Walks the lines and comma separated fields of a chunk in place. Quoted values may
+     * contain commas, and quoted values with escapes are the only ones decoded into a String.
+     */
+    private static class FieldCursor {
+
+        private ByteBuffer buffer;
+        private int limit;
+        private int position;
+        private int lineStart;
+        private int lineEnd;
+        private int next;
+        private boolean hasMoreFields;
+        private int fieldStart;
+        private int fieldEnd;
+        private boolean quoted;
+        private String escaped;
+
+        FieldCursor(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.limit = buffer.limit();
+        }
+
+        int getLineStart() {
+            return this.lineStart;
+        }
+
+        /**
+         * Moves to the next line holding a row, skipping blank lines and comments.
+         */
+        boolean nextLine() {
+            while (this.position < this.limit) {
+                this.lineStart = this.position;
+                int end = this.position;
+                while (end < this.limit && this.buffer.get(end) != '\n') end++;
+                this.position = end + 1;
+                while (end > this.lineStart && isSpace(this.buffer.get(end - 1))) end--;
+                int start = this.lineStart;
+                while (start < end && isSpace(this.buffer.get(start))) start++;
+                if (start == end || this.buffer.get(start) == '%') continue;
+                if (this.buffer.get(start) == '{') {
+                    throw new UnsupportedOperationException("Sparse rows");
+                }
+                this.lineEnd = end;
+                this.next = start;
+                this.hasMoreFields = true;
+                return true;
+            }
+            return false;
+        }
+
+        void nextField(int attrIndex, int numAttributes) throws IOException {
+            if (!this.hasMoreFields) {
+                throw new IOException("Row has " + attrIndex + " values instead of " + numAttributes + " near byte " + this.lineStart);
+            }
+            int start = this.next;
+            while (start < this.lineEnd && isSpace(this.buffer.get(start))) start++;
+            this.escaped = null;
+            this.quoted = false;
+
+            int separator;
+            byte first = start < this.lineEnd ? this.buffer.get(start) : 0;
+            if (first == '\'' || first == '"') {
+                int end = start + 1;
+                boolean hasEscapes = false;
+                while (end < this.lineEnd && this.buffer.get(end) != first) {
+                    if (this.buffer.get(end) == '\\') {
+                        hasEscapes = true;
+                        end++;
+                    }
+                    end++;
+                }
+                if (end >= this.lineEnd) {
+                    throw new IOException("Unterminated quote near byte " + this.lineStart);
+                }
+                this.fieldStart = start + 1;
+                this.fieldEnd = end;
+                this.quoted = true;
+                if (hasEscapes) {
+                    this.escaped = unquote(decode(this.buffer, start, end + 1));
+                }
+                separator = end + 1;
+                while (separator < this.lineEnd && this.buffer.get(separator) != ',') separator++;
+            } else {
+                separator = start;
+                while (separator < this.lineEnd && this.buffer.get(separator) != ',') separator++;
+                int end = separator;
+                while (end > start && isSpace(this.buffer.get(end - 1))) end--;
+                this.fieldStart = start;
+                this.fieldEnd = end;
+            }
+
+            this.hasMoreFields = separator < this.lineEnd;
+            this.next = separator + 1;
+        }
+
+        void endLine(int numAttributes) throws IOException {
+            if (!this.hasMoreFields) {
+                return;
+            }
+            int start = this.next;
+            while (start < this.lineEnd && isSpace(this.buffer.get(start))) start++;
+            if (start < this.lineEnd && this.buffer.get(start) == '{') {
+                throw new UnsupportedOperationException("Instance weights");
+            }
+            throw new IOException("Row has more than " + numAttributes + " values near byte " + this.lineStart);
+        }
+
+        /**
+         * True for an empty or unquoted ? field.
+         */
+        boolean isMissing() {
+            if (this.quoted) {
+                return false;
+            }
+            int length = this.fieldEnd - this.fieldStart;
+            return length == 0 || (length == 1 && this.buffer.get(this.fieldStart) == '?');
+        }
+
+        String text() {
+            return this.escaped != null ? this.escaped : decode(this.buffer, this.fieldStart, this.fieldEnd);
+        }
+
+        int findIn(ValueDictionary dictionary) {
+            if (this.escaped != null) {
+                byte[] key = this.escaped.getBytes(StandardCharsets.UTF_8);
+                return dictionary.find(ByteBuffer.wrap(key), 0, key.length);
+            }
+            return dictionary.find(this.buffer, this.fieldStart, this.fieldEnd);
+        }
+
+        int addTo(ValueDictionary dictionary) {
+            int code = this.findIn(dictionary);
+            if (code == EncodedDataset.MISSING) {
+                code = dictionary.add(this.text().getBytes(StandardCharsets.UTF_8));
+            }
+            return code;
+        }
+
+        /**
+         * The field as a number, or NaN if it is not one. Plain decimals with few enough
+         * digits are converted exactly without a String, anything else goes through
+         * Double.parseDouble.
+         */
+        double parseNumber() {
+            if (this.escaped == null) {
+                int i = this.fieldStart;
+                boolean negative = false;
+                if (i < this.fieldEnd && (this.buffer.get(i) == '-' || this.buffer.get(i) == '+')) {
+                    negative = this.buffer.get(i) == '-';
+                    i++;
+                }
+                long mantissa = 0;
+                int numDigits = 0;
+                int numFractionDigits = -1;
+                for (; i < this.fieldEnd; i++) {
+                    byte b = this.buffer.get(i);
+                    if (b >= '0' && b <= '9') {
+                        mantissa = mantissa * 10 + (b - '0');
+                        numDigits++;
+                        if (numFractionDigits >= 0) numFractionDigits++;
+                    } else if (b == '.' && numFractionDigits < 0) {
+                        numFractionDigits = 0;
+                    } else {
+                        break;
+                    }
+                }
+                // Both operands are exact below these limits, so one division rounds correctly
+                if (i == this.fieldEnd && numDigits > 0 && numDigits <= 15 && numFractionDigits < POWERS_OF_TEN.length) {
+                    double value = numFractionDigits > 0 ? mantissa / POWERS_OF_TEN[numFractionDigits] : mantissa;
+                    return negative ? -value : value;
+                }
+            }
+            try {
+                return Double.parseDouble(this.text());
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\r';
+        }
+    }
+}
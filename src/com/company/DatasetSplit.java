@@ -0,0 +1,48 @@
+package com.company;
+
+/**
+ * A training and a validation set given as row indices into one EncodedDataset. Both
+ * hold labeled rows only, in their original order.
+ */
+public class DatasetSplit {
+
+    private EncodedDataset data;
+    private int[] trainingRows;
+    private int[] validationRows;
+
+    DatasetSplit(EncodedDataset data, int[] trainingRows, int[] validationRows) {
+        this.data = data;
+        this.trainingRows = trainingRows;
+        this.validationRows = validationRows;
+    }
+
+    public EncodedDataset getData() {
+        return this.data;
+    }
+
+    /**
+     * Rows to train on. Callers must not modify the array.
+     */
+    int[] getTrainingRows() {
+        return this.trainingRows;
+    }
+
+    /**
+     * Rows held out for validation. Callers must not modify the array.
+     */
+    int[] getValidationRows() {
+        return this.validationRows;
+    }
+
+    public int numTrainingRows() {
+        return this.trainingRows.length;
+    }
+
+    public int numValidationRows() {
+        return this.validationRows.length;
+    }
+
+    public String toString() {
+        return this.trainingRows.length + " training rows, " + this.validationRows.length + " validation rows";
+    }
+}
@@ -0,0 +1,166 @@
+package com.company;
+
+import java.util.Random;
+
+/**
+ * Splits the labeled rows of an EncodedDataset into training and validation rows, either
+ * at random, at random within each class, or by holding out every k-th row. Splits are
+ * row indices into the one dataset, built in time linear in the number of rows, and a
+ * splitter always makes the same split for the same seed.
+ */
+public class DatasetSplitter {
+
+    private EncodedDataset data;
+    private long seed;
+
+    public DatasetSplitter(EncodedDataset data, long seed) {
+        this.data = data;
+        this.seed = seed;
+    }
+
+    /**
+     * Holds out validationFraction of the rows, drawn at random.
+     */
+    public DatasetSplit random(double validationFraction) {
+        checkFraction(validationFraction);
+        int[] rows = this.data.labeledRows();
+        boolean[] heldOut = new boolean[this.data.numRows()];
+        holdOut(rows, rows.length, (int) Math.round(validationFraction * rows.length), heldOut, new Random(this.seed));
+        return this.split(rows, heldOut);
+    }
+
+    /**
+     * Holds out validationFraction of the rows of each class, drawn at random, so the
+     * validation rows keep close to the class mix of the whole dataset.
+     */
+    public DatasetSplit stratified(double validationFraction) {
+        checkFraction(validationFraction);
+        int[] rows = this.data.labeledRows();
+        int[][] byClass = this.byClass(rows);
+        boolean[] heldOut = new boolean[this.data.numRows()];
+        Random random = new Random(this.seed);
+        for (int[] classRows : byClass) {
+            holdOut(classRows, classRows.length, (int) Math.round(validationFraction * classRows.length), heldOut, random);
+        }
+        return this.split(rows, heldOut);
+    }
+
+    /**
+     * Holds out the first labeled row and every k-th one after it. Does not depend on the seed.
+     */
+    public DatasetSplit everyKth(int k) {
+        if (k < 2) {
+            throw new IllegalArgumentException("Need k of at least 2, got " + k);
+        }
+        int[] rows = this.data.labeledRows();
+        boolean[] heldOut = new boolean[this.data.numRows()];
+        for (int i = 0; i < rows.length; i += k) {
+            heldOut[rows[i]] = true;
+        }
+        return this.split(rows, heldOut);
+    }
+
+    /**
+     * Deals the given rows of each class out to the folds in turn after shuffling, so every
+     * fold gets close to the same class mix. Every row must have a class value, and rows is
+     * not modified.
+     */
+    int[][] stratifiedFolds(int[] rows, int numFolds) {
+        int numClasses = this.data.numClasses();
+        int[][] byClass = this.byClass(rows);
+        Random random = new Random(this.seed);
+
+        int[] foldSizes = new int[numFolds];
+        int[] assignment = new int[rows.length];
+        int next = 0;
+        int fold = 0;
+        for (int c = 0; c < numClasses; c++) {
+            int[] classRows = byClass[c];
+            shuffle(classRows, random);
+            for (int row : classRows) {
+                assignment[next++] = fold;
+                foldSizes[fold]++;
+                fold = (fold + 1) % numFolds;
+            }
+        }
+
+        int[][] folds = new int[numFolds][];
+        for (int f = 0; f < numFolds; f++) {
+            folds[f] = new int[foldSizes[f]];
+        }
+        int[] foldFilled = new int[numFolds];
+        next = 0;
+        for (int c = 0; c < numClasses; c++) {
+            for (int row : byClass[c]) {
+                int f = assignment[next++];
+                folds[f][foldFilled[f]++] = row;
+            }
+        }
+        return folds;
+    }
+
+    private int[][] byClass(int[] rows) {
+        int numClasses = this.data.numClasses();
+        int[] classSizes = new int[numClasses];
+        for (int row : rows) {
+            classSizes[this.data.classCode(row)]++;
+        }
+        int[][] byClass = new int[numClasses][];
+        for (int c = 0; c < numClasses; c++) {
+            byClass[c] = new int[classSizes[c]];
+        }
+        int[] filled = new int[numClasses];
+        for (int row : rows) {
+            int c = this.data.classCode(row);
+            byClass[c][filled[c]++] = row;
+        }
+        return byClass;
+    }
+
+    // Partial Fisher-Yates shuffle that marks count of the first size rows, chosen at random
+    private static void holdOut(int[] rows, int size, int count, boolean[] heldOut, Random random) {
+        for (int i = 0; i < count; i++) {
+            int k = i + random.nextInt(size - i);
+            int row = rows[k];
+            rows[k] = rows[i];
+            rows[i] = row;
+            heldOut[row] = true;
+        }
+    }
+
+    private static void shuffle(int[] rows, Random random) {
+        for (int i = rows.length - 1; i > 0; i--) {
+            int k = random.nextInt(i + 1);
+            int row = rows[i];
+            rows[i] = rows[k];
+            rows[k] = row;
+        }
+    }
+
+    // Walks the dataset once so both sides come out in row order
+    private DatasetSplit split(int[] rows, boolean[] heldOut) {
+        int numHeldOut = 0;
+        for (int row : rows) {
+            if (heldOut[row]) numHeldOut++;
+        }
+
+        int[] trainingRows = new int[rows.length - numHeldOut];
+        int[] validationRows = new int[numHeldOut];
+        int t = 0;
+        int v = 0;
+        for (int row = 0; row < heldOut.length; row++) {
+            if (heldOut[row]) {
+                validationRows[v++] = row;
+            } else if (this.data.classCode(row) != EncodedDataset.MISSING) {
+                trainingRows[t++] = row;
+            }
+        }
+        return new DatasetSplit(this.data, trainingRows, validationRows);
+    }
+
+    private static void checkFraction(double validationFraction) {
+        if (!(validationFraction > 0.0 && validationFraction < 1.0)) {
+            throw new IllegalArgumentException("Validation fraction must be between 0 and 1, got " + validationFraction);
+        }
+    }
+}
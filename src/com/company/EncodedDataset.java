@@ -0,0 +1,317 @@
+package com.company;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+/**
+ * Column oriented copy of a training set. Every attribute is stored once as a packed
+ * column of value codes (byte, short or int depending on arity), so tree nodes can refer to
+ * their rows by index instead of copying Instances at every level.
+ *
+ * Nominal attributes use the weka value index as their code. Numeric attributes are
+ * dictionary encoded against their sorted distinct values.
+ */
+public class EncodedDataset {
+
+    public static final int MISSING = -1;
+
+    private Instances header;
+    private byte[][] byteColumns;
+    private short[][] shortColumns;
+    private int[][] intColumns;
+    private double[][] dictionaries;
+    private int[] numValues;
+    private int classIndex;
+    private int numRows;
+
+    public EncodedDataset(Instances data) {
+        this(data, data.size());
+
+        int numAttributes = data.numAttributes();
+        for (int j = 0; j < numAttributes; j++) {
+            Attribute attr = data.attribute(j);
+            if (attr.isNominal()) {
+                this.numValues[j] = attr.numValues();
+            } else {
+                this.dictionaries[j] = buildDictionary(data, j);
+                this.numValues[j] = this.dictionaries[j].length;
+            }
+            this.allocateColumn(j);
+        }
+
+        for (int i = 0; i < this.numRows; i++) {
+            Instance instance = data.get(i);
+            for (int j = 0; j < numAttributes; j++) {
+                int code = instance.isMissing(j) ? MISSING : this.codeOf(j, instance.value(j));
+                this.setCode(j, i, code);
+            }
+        }
+    }
+
+    /**
+     * An empty dataset of numRows rows laid out like header, whose columns are then filled
+     * in one at a time with setNominalColumn and setNumericColumn. Different columns may be
+     * filled on different threads.
+     */
+    EncodedDataset(Instances header, int numRows) {
+
+        if (header.classIndex() == -1) {
+            throw new IllegalArgumentException("Class index has not been set");
+        }
+        if (!header.classAttribute().isNominal()) {
+            throw new IllegalArgumentException("Class attribute " + header.classAttribute().name() + " is not nominal");
+        }
+
+        int numAttributes = header.numAttributes();
+        this.header = new Instances(header, 0);
+        this.classIndex = header.classIndex();
+        this.numRows = numRows;
+        this.byteColumns = new byte[numAttributes][];
+        this.shortColumns = new short[numAttributes][];
+        this.intColumns = new int[numAttributes][];
+        this.dictionaries = new double[numAttributes][];
+        this.numValues = new int[numAttributes];
+    }
+
+    /**
+     * Fills a nominal attribute's column from the weka value index of every row, with MISSING for missing values.
+     */
+    void setNominalColumn(int attrIndex, int[] codes) {
+        this.numValues[attrIndex] = this.header.attribute(attrIndex).numValues();
+        this.allocateColumn(attrIndex);
+        for (int i = 0; i < this.numRows; i++) {
+            this.setCode(attrIndex, i, codes[i]);
+        }
+    }
+
+    /**
+     * Fills a numeric attribute's column from the value of every row, with NaN for missing values.
+     */
+    void setNumericColumn(int attrIndex, double[] values) {
+        double[] sorted = Arrays.copyOf(values, this.numRows);
+        Arrays.sort(sorted);
+
+        // NaN sorts last, and Double.compare keeps -0.0 and 0.0 apart like the TreeSet does
+        int numDistinct = 0;
+        for (int i = 0; i < sorted.length && !Double.isNaN(sorted[i]); i++) {
+            if (numDistinct == 0 || Double.compare(sorted[numDistinct - 1], sorted[i]) != 0) {
+                sorted[numDistinct++] = sorted[i];
+            }
+        }
+        this.dictionaries[attrIndex] = Arrays.copyOf(sorted, numDistinct);
+        this.numValues[attrIndex] = numDistinct;
+        this.allocateColumn(attrIndex);
+        for (int i = 0; i < this.numRows; i++) {
+            this.setCode(attrIndex, i, this.codeOf(attrIndex, values[i]));
+        }
+    }
+
+    private void allocateColumn(int attrIndex) {
+        if (this.numValues[attrIndex] <= Byte.MAX_VALUE) {
+            this.byteColumns[attrIndex] = new byte[this.numRows];
+        } else if (this.numValues[attrIndex] <= Short.MAX_VALUE) {
+            this.shortColumns[attrIndex] = new short[this.numRows];
+        } else {
+            // Continuous attributes can have as many distinct values as there are rows
+            this.intColumns[attrIndex] = new int[this.numRows];
+        }
+    }
+
+    private void setCode(int attrIndex, int row, int code) {
+        if (this.byteColumns[attrIndex] != null) {
+            this.byteColumns[attrIndex][row] = (byte) code;
+        } else if (this.shortColumns[attrIndex] != null) {
+            this.shortColumns[attrIndex][row] = (short) code;
+        } else {
+            this.intColumns[attrIndex][row] = code;
+        }
+    }
+
+    private static double[] buildDictionary(Instances data, int attrIndex) {
+        TreeSet<Double> distinct = new TreeSet<>();
+        for (int i = 0; i < data.size(); i++) {
+            Instance instance = data.get(i);
+            if (!instance.isMissing(attrIndex)) {
+                distinct.add(instance.value(attrIndex));
+            }
+        }
+
+        double[] dictionary = new double[distinct.size()];
+        int k = 0;
+        for (Double value : distinct) {
+            dictionary[k++] = value;
+        }
+        return dictionary;
+    }
+
+    public Instances getHeader() {
+        return this.header;
+    }
+
+    public Attribute attribute(int attrIndex) {
+        return this.header.attribute(attrIndex);
+    }
+
+    public int numAttributes() {
+        return this.numValues.length;
+    }
+
+    public int numRows() {
+        return this.numRows;
+    }
+
+    public int classIndex() {
+        return this.classIndex;
+    }
+
+    public int numClasses() {
+        return this.numValues[this.classIndex];
+    }
+
+    public int numValues(int attrIndex) {
+        return this.numValues[attrIndex];
+    }
+
+    /**
+     * True for numeric attributes. Their codes follow the order of their values, so rows
+     * sorted by code are sorted by value.
+     */
+    public boolean isNumeric(int attrIndex) {
+        return this.dictionaries[attrIndex] != null && this.header.attribute(attrIndex).isNumeric();
+    }
+
+    public int code(int attrIndex, int row) {
+        byte[] column = this.byteColumns[attrIndex];
+        if (column != null) {
+            return column[row];
+        }
+        short[] shortColumn = this.shortColumns[attrIndex];
+        if (shortColumn != null) {
+            return shortColumn[row];
+        }
+        return this.intColumns[attrIndex][row];
+    }
+
+    public int classCode(int row) {
+        return this.code(this.classIndex, row);
+    }
+
+    /**
+     * Converts a code back into the double weka uses for the same value.
+     */
+    public double value(int attrIndex, int code) {
+        double[] dictionary = this.dictionaries[attrIndex];
+        if (dictionary == null) {
+            return code;
+        }
+        return dictionary[code];
+    }
+
+    /**
+     * Writes the weka values of a row into values, with NaN for missing ones, so the row
+     * can be scored without going back to the Instances it came from.
+     */
+    public void fillValues(int row, double[] values) {
+        for (int j = 0; j < this.numValues.length; j++) {
+            int code = this.code(j, row);
+            values[j] = code == MISSING ? Double.NaN : this.value(j, code);
+        }
+    }
+
+    /**
+     * Converts a weka value into its code, or MISSING if the value is missing or was never seen.
+     */
+    public int codeOf(int attrIndex, double value) {
+        if (Double.isNaN(value)) {
+            return MISSING;
+        }
+
+        double[] dictionary = this.dictionaries[attrIndex];
+        if (dictionary == null) {
+            int code = (int) value;
+            return code < this.numValues[attrIndex] ? code : MISSING;
+        }
+
+        int code = Arrays.binarySearch(dictionary, value);
+        return code >= 0 ? code : MISSING;
+    }
+
+    /**
+     * Copies every row back into weka Instances, for code that has not moved off them yet.
+     */
+    public Instances toInstances() {
+        Instances data = new Instances(this.header, this.numRows);
+        for (int i = 0; i < this.numRows; i++) {
+            data.add(this.toInstance(i));
+        }
+        return data;
+    }
+
+    /**
+     * Copies the given rows back into weka Instances, in the order given.
+     */
+    public Instances toInstances(int[] rows) {
+        Instances data = new Instances(this.header, rows.length);
+        for (int row : rows) {
+            data.add(this.toInstance(row));
+        }
+        return data;
+    }
+
+    private Instance toInstance(int row) {
+        double[] values = new double[this.numValues.length];
+        this.fillValues(row, values);
+        return new DenseInstance(1.0, values);
+    }
+
+    /**
+     * A 64-bit hash of the header, the numeric dictionaries and every code of the given
+     * rows, in the order given, for recognising the same training data again without
+     * keeping a copy of it.
+     */
+    public long fingerprint(int[] rows) {
+        long hash = mix(this.header.toString().hashCode(), rows.length);
+        for (int j = 0; j < this.numValues.length; j++) {
+            if (this.dictionaries[j] != null) {
+                for (double value : this.dictionaries[j]) {
+                    hash = mix(hash, Double.doubleToLongBits(value));
+                }
+            }
+            for (int row : rows) {
+                hash = mix(hash, this.code(j, row));
+            }
+        }
+
+        // Final avalanche so nearby inputs land far apart
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        return Long.rotateLeft((hash ^ value) * 0x9E3779B97F4A7C15L, 31);
+    }
+
+    /**
+     * Returns the rows that have a class value, in their original order.
+     */
+    public int[] labeledRows() {
+        int count = 0;
+        for (int i = 0; i < this.numRows; i++) {
+            if (this.classCode(i) != MISSING) count++;
+        }
+
+        int[] rows = new int[count];
+        int k = 0;
+        for (int i = 0; i < this.numRows; i++) {
+            if (this.classCode(i) != MISSING) rows[k++] = i;
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,25 @@
+package com.company;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Scoring the validation set in ID3DecisionTree.evaluate.
+ */
+@Name("com.company.Evaluation")
+@Label("Evaluation")
+@Category("ID3")
+class EvaluationEvent extends jdk.jfr.Event {
+
+    @Label("Instances")
+    int instances;
+
+    @Label("Matches")
+    int matches;
+
+    @Label("Scoring Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long scoringTime;
+}
@@ -76,20 +76,28 @@ public class GainInfo {
 
         double entropy = 0.0;
         for (int i = 0; i < classCount.size(); i++) {
-            int count = classCount.get(i);
-            if (count != attrCount && count > 0) {
-                double percentage = (double) count / (double) attrCount;
-                double loggedPercent = Math.log(percentage);
-                double loggedBase2 = Math.log(2);
-                double convertedPercentage = loggedPercent / loggedBase2;
-
-                entropy -= percentage * convertedPercentage;
-            }
+            entropy += entropyTerm(classCount.get(i), attrCount);
         }
 
         return entropy;
     }
 
+    /**
+     * The -p*log2(p) contribution of a class that shows up count times out of attrCount.
+     * Shared with ContingencyTables so both gain engines do exactly the same math.
+     */
+    static double entropyTerm(int count, int attrCount) {
+        if (count != attrCount && count > 0) {
+            double percentage = (double) count / (double) attrCount;
+            double loggedPercent = Math.log(percentage);
+            double loggedBase2 = Math.log(2);
+            double convertedPercentage = loggedPercent / loggedBase2;
+
+            return -percentage * convertedPercentage;
+        }
+        return 0.0;
+    }
+
     public String toString() {
         return "" + this.classInstanceCount + " " + this.attributeInstanceCount;
     }
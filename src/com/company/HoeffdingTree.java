@@ -0,0 +1,208 @@
+package com.company;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Decision tree learned incrementally from a stream of instances (a Hoeffding tree).
+ * Each leaf keeps ContingencyTables of the instances that reached it, so its gains are
+ * computed with the same math as batch training. Every gracePeriod instances a leaf
+ * checks whether its best attribute beats the runner up by more than the Hoeffding bound
+ *
+ *   epsilon = sqrt(R^2 * ln(1 / delta) / (2 * n)),  R = log2(numClasses)
+ *
+ * or whether epsilon has fallen below tieThreshold, and if so splits on it with one new
+ * leaf per value. Updating costs the same for every instance no matter how many have been
+ * seen. Only nominal attributes are split on.
+ *
+ * Not thread safe. Call snapshot from the thread doing the updates to get an ID3TreeNode
+ * tree that can be evaluated, printed, compiled or saved like a batch trained one.
+ */
+public class HoeffdingTree {
+
+    public static final double DEFAULT_DELTA = 1e-7;
+    public static final int DEFAULT_GRACE_PERIOD = 200;
+    public static final double DEFAULT_TIE_THRESHOLD = 0.05;
+
+    private Instances header;
+    private int[] numValues;
+    private double delta;
+    private int gracePeriod;
+    private double tieThreshold;
+    private Node root;
+    private long numInstances;
+    private int numLeaves;
+
+    public HoeffdingTree(Instances header) {
+        this(header, DEFAULT_DELTA, DEFAULT_GRACE_PERIOD, DEFAULT_TIE_THRESHOLD);
+    }
+
+    public HoeffdingTree(Instances header, double delta, int gracePeriod, double tieThreshold) {
+        if (header.classIndex() == -1) {
+            throw new IllegalArgumentException("Class index has not been set");
+        }
+        if (delta <= 0 || delta >= 1 || gracePeriod < 1) {
+            throw new IllegalArgumentException("Delta must be in (0, 1) and the grace period at least 1");
+        }
+
+        this.header = new Instances(header, 0);
+        this.delta = delta;
+        this.gracePeriod = gracePeriod;
+        this.tieThreshold = tieThreshold;
+
+        int numAttributes = header.numAttributes();
+        this.numValues = new int[numAttributes];
+        boolean[] usedAttributes = new boolean[numAttributes];
+        for (int j = 0; j < numAttributes; j++) {
+            Attribute attr = header.attribute(j);
+            this.numValues[j] = attr.numValues();
+            usedAttributes[j] = !attr.isNominal();
+        }
+        this.root = this.newLeaf(usedAttributes, null);
+    }
+
+    private Node newLeaf(boolean[] usedAttributes, Double prediction) {
+        Node leaf = new Node();
+        leaf.usedAttributes = usedAttributes;
+        leaf.tables = new ContingencyTables(this.numValues, this.header.classIndex(), usedAttributes);
+        leaf.prediction = prediction;
+        this.numLeaves++;
+        return leaf;
+    }
+
+    public void update(Instance instance) {
+        if (instance.classIsMissing()) {
+            return;
+        }
+
+        Node node = this.root;
+        while (node.attributeIndex != -1) {
+            int attributeIndex = node.attributeIndex;
+            node = instance.isMissing(attributeIndex) ? node.children[node.fallbackCode] : node.children[(int) instance.value(attributeIndex)];
+        }
+
+        node.tables.add(instance);
+        this.numInstances++;
+        if (++node.seenSinceCheck >= this.gracePeriod) {
+            node.seenSinceCheck = 0;
+            this.attemptSplit(node);
+        }
+    }
+
+    /**
+     * How far the gain measured over n rows can be from its true value, with probability
+     * 1 - delta, for a class with numClasses values.
+     */
+    static double hoeffdingBound(int numClasses, double delta, long n) {
+        double range = Math.log(numClasses) / Math.log(2);
+        return Math.sqrt(range * range * Math.log(1.0 / delta) / (2.0 * n));
+    }
+
+    private void attemptSplit(Node leaf) {
+        ContingencyTables tables = leaf.tables;
+        tables.finish();
+        leaf.prediction = mostCommonClassValue(tables.getClassCounts());
+
+        int attributeIndex = tables.findBestAttribute();
+        if (attributeIndex == -1 || tables.entropy() == 0.0) {
+            return;
+        }
+
+        double bestGain = tables.gain(attributeIndex, tables.entropy());
+        double runnerUpGain = tables.findRunnerUpGain(attributeIndex);
+        double epsilon = hoeffdingBound(tables.getClassCounts().length, this.delta, tables.getTotal());
+        if (bestGain - runnerUpGain <= epsilon && epsilon >= this.tieThreshold) {
+            return;
+        }
+
+        // Split: the leaf becomes an internal node with a fresh leaf for every value
+        int numCodes = this.numValues[attributeIndex];
+        boolean[] childUsedAttributes = leaf.usedAttributes.clone();
+        childUsedAttributes[attributeIndex] = true;
+
+        int fallbackCode = 0;
+        int fallbackCount = -1;
+        leaf.children = new Node[numCodes];
+        for (int code = 0; code < numCodes; code++) {
+            int[] classCounts = new int[tables.getClassCounts().length];
+            int size = 0;
+            for (int c = 0; c < classCounts.length; c++) {
+                classCounts[c] = tables.count(attributeIndex, code, c);
+                size += classCounts[c];
+            }
+            if (size > fallbackCount) {
+                fallbackCount = size;
+                fallbackCode = code;
+            }
+
+            Double prediction = size > 0 ? mostCommonClassValue(classCounts) : leaf.prediction;
+            leaf.children[code] = this.newLeaf(childUsedAttributes, prediction);
+        }
+
+        leaf.attributeIndex = attributeIndex;
+        leaf.fallbackCode = fallbackCode;
+        leaf.tables = null;
+        leaf.usedAttributes = null;
+        this.numLeaves--;
+    }
+
+    /**
+     * Copies the current model into an ID3TreeNode tree. Later updates do not affect the copy.
+     */
+    public ID3TreeNode snapshot() {
+        return this.snapshot(this.root);
+    }
+
+    private ID3TreeNode snapshot(Node node) {
+        ID3TreeNode copy = new ID3TreeNode(CriticalValuesTable.NO_PRUNING);
+        if (node.attributeIndex == -1) {
+            Double prediction = node.tables.getTotal() > 0 ? mostCommonClassValue(node.tables.getClassCounts()) : node.prediction;
+            copy.setLeafClassValue(prediction);
+            return copy;
+        }
+
+        copy.setAttribute(this.header.attribute(node.attributeIndex));
+        copy.setMajorityClassValue(node.prediction);
+        copy.setFallbackAttrValue((double) node.fallbackCode);
+        for (int code = 0; code < node.children.length; code++) {
+            copy.setChildForAttributeValue((double) code, this.snapshot(node.children[code]));
+        }
+        return copy;
+    }
+
+    public long getNumInstances() {
+        return this.numInstances;
+    }
+
+    public int getNumLeaves() {
+        return this.numLeaves;
+    }
+
+    public Instances getHeader() {
+        return this.header;
+    }
+
+    private static Double mostCommonClassValue(int[] classCounts) {
+        int highestCount = 0;
+        Double highestClassValue = null;
+        for (int classCode = 0; classCode < classCounts.length; classCode++) {
+            if (classCounts[classCode] > highestCount) {
+                highestCount = classCounts[classCode];
+                highestClassValue = (double) classCode;
+            }
+        }
+        return highestClassValue;
+    }
+
+    private static class Node {
+
+        private int attributeIndex = -1;
+        private Node[] children;
+        private int fallbackCode;
+        private ContingencyTables tables;
+        private boolean[] usedAttributes;
+        private Double prediction;
+        private int seenSinceCheck;
+    }
+}
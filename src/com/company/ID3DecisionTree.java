@@ -4,6 +4,7 @@ import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.converters.ConverterUtils;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -12,46 +13,313 @@ import java.util.List;
  */
 public class ID3DecisionTree {
 
+    // Rows held out of the training data when no validation file is given
+    public static final int HOLDOUT_INTERVAL = 10;
+
     private Instances trainingData;
+    private EncodedDataset encodedTrainingData;
+    private int[] trainingRows;
+    private int[] validationRows;
     private Instances validationData;
+    private TreeCache trees = new TreeCache();
+
+    public ID3DecisionTree(String trainingDataPath) {
+        this.encodedTrainingData = getEncodedDataset(trainingDataPath);
+        this.validationData = null;
+    }
 
     public ID3DecisionTree(String trainingDataPath, String validationDataPath) {
 
         if (validationDataPath != null) {
-            this.trainingData = getInstances(trainingDataPath);
+            this.encodedTrainingData = getEncodedDataset(trainingDataPath);
             this.validationData = getInstances(validationDataPath);
         } else {
+            EncodedDataset data = getEncodedDataset(trainingDataPath);
+            this.setSplit(new DatasetSplitter(data, 0L).everyKth(HOLDOUT_INTERVAL));
+        }
+    }
 
-            this.trainingData = getInstances(trainingDataPath);
+    /**
+     * Trains on the training rows of split and validates on its validation rows.
+     */
+    public ID3DecisionTree(DatasetSplit split) {
+        this.setSplit(split);
+    }
 
-            this.validationData = new Instances(this.trainingData, this.trainingData.size());
-            for (int i = 0; i < this.trainingData.size(); i = i + 10) {
-                Instance instance = this.trainingData.remove(i);
-                validationData.add(instance);
-            }
-        }
+    private void setSplit(DatasetSplit split) {
+        this.encodedTrainingData = split.getData();
+        this.trainingRows = split.getTrainingRows();
+        this.validationRows = split.getValidationRows();
     }
 
     public void evaluate(Integer confidenceLevel) {
+        this.evaluate(confidenceLevel, new TrainingOptions());
+    }
+
+    /**
+     * Trains on the training data, printing what approximate split search did when it is on.
+     */
+    public ID3TreeNode train(Integer confidenceLevel, TrainingOptions options) {
+        ID3TreeNode tree = new ID3TreeNode(confidenceLevel);
+        ApproximateSplitReport report = tree.train(this.encodedTrainingData, this.getTrainingRows(), options);
+        if (options.getApproximateSplitMinRows() > 0) {
+            System.out.println(report);
+        }
+        return tree;
+    }
 
-        ID3TreeNode tree = new ID3TreeNode(null, confidenceLevel);
-        tree.train(this.trainingData);
-        System.out.println(this.trainingData.attribute(this.trainingData.classIndex()));
+    // A fresh copy, since training reorders the rows it is given
+    private int[] getTrainingRows() {
+        return this.trainingRows != null ? this.trainingRows.clone() : this.encodedTrainingData.labeledRows();
+    }
+
+    /**
+     * The training data as Instances, copied out of the encoded columns the first time it
+     * is needed.
+     */
+    private Instances getTrainingData() {
+        if (this.trainingData == null) {
+            this.trainingData = this.trainingRows != null
+                    ? this.encodedTrainingData.toInstances(this.trainingRows)
+                    : this.encodedTrainingData.toInstances();
+        }
+        return this.trainingData;
+    }
+
+    /**
+     * The validation data as Instances. Rows held out of the training data are only copied
+     * out of the encoded columns the first time they are needed this way.
+     */
+    private Instances getValidationData() {
+        if (this.validationData == null && this.validationRows != null) {
+            this.validationData = this.encodedTrainingData.toInstances(this.validationRows);
+        }
+        return this.validationData;
+    }
+
+    private Instances getTrainingHeader() {
+        return this.encodedTrainingData.getHeader();
+    }
+
+    public void evaluate(Integer confidenceLevel, TrainingOptions options) {
+
+        ID3TreeNode tree = this.train(confidenceLevel, options);
+        Instances header = this.getTrainingHeader();
+        System.out.println(header.attribute(header.classIndex()));
         tree.print();
 
-       int numMatches = 0;
+        long start = TrainingMetrics.ENABLED ? System.nanoTime() : 0L;
+        int numMatches = this.countMatches(tree);
+        int numRows = this.numValidationRows();
+        double percent = (double)numMatches / (double)numRows;
+        System.out.println("Accuracy: " + percent);
+
+        if (TrainingMetrics.ENABLED) {
+            TrainingMetrics.evaluated(numRows, numMatches, System.nanoTime() - start);
+            System.out.println(TrainingMetrics.snapshot());
+        }
+    }
+
+    /**
+     * Prints the accuracy on the validation data at each confidence, each between 0 and 1
+     * or CriticalValuesTable.NO_PRUNING_CONFIDENCE. Training runs once, and every
+     * confidence after that is pruned from the unpruned tree, which stays cached for
+     * later sweeps. Prints what approximate split search did when it is on.
+     */
+    public void sweep(double[] confidences, TrainingOptions options) {
+
+        for (double confidence : confidences) {
+            CriticalValuesTable.checkConfidence(confidence);
+        }
+        int[] rows = this.getTrainingRows();
+        long fingerprint = this.encodedTrainingData.fingerprint(rows);
+        int numRows = this.numValidationRows();
+        for (double confidence : confidences) {
+            long start = System.nanoTime();
+            ID3TreeNode tree = this.trees.get(fingerprint, this.encodedTrainingData, rows, confidence, options);
+            long buildNanos = System.nanoTime() - start;
+            double percent = (double) this.countMatches(tree) / (double) numRows;
+            System.out.println("confidence " + confidence + ": accuracy " + percent + ", tree ready in " + buildNanos / 1000000 + "ms");
+        }
+        if (options.getApproximateSplitMinRows() > 0 && confidences.length > 0) {
+            // The last tree asked for is the one surest to still be cached
+            ApproximateSplitReport report = this.trees.getApproximateSplitReport(fingerprint, confidences[confidences.length - 1], options);
+            if (report != null) {
+                System.out.println(report);
+            }
+        }
+        System.out.println(this.trees.getNumTrainings() + " trained, " + this.trees.getNumDerived() + " pruned from a trained tree, "
+                + this.trees.getNumHits() + " cached");
+    }
+
+    private int countMatches(ID3TreeNode tree) {
+        int numMatches = 0;
+        if (this.validationRows != null) {
+            // Held out rows are scored straight from the encoded columns
+            CompiledTree scorer = new CompiledTree(tree, this.getTrainingHeader());
+            double[] values = new double[this.encodedTrainingData.numAttributes()];
+            for (int row : this.validationRows) {
+                this.encodedTrainingData.fillValues(row, values);
+                if (scorer.score(values) == this.encodedTrainingData.classCode(row)) {
+                    numMatches++;
+                }
+            }
+            return numMatches;
+        }
+
+        TreeScorer scorer = new CompiledTree(tree, this.validationData);
         for (int i = 0; i < this.validationData.size(); i++) {
             Instance instance = this.validationData.get(i);
-            Double expectedClassValue = tree.evaluateInstance(instance);
-            Double actualClassValue = instance.classValue();
-            if (expectedClassValue.equals(actualClassValue)) {
+            double expectedClassValue = scorer.score(instance);
+            double actualClassValue = instance.classValue();
+            if (expectedClassValue == actualClassValue) {
                 numMatches++;
             } else {
                 //System.out.println(instance);
             }
         }
-        double percent = (double)numMatches / (double)this.validationData.size();
-        System.out.println("Accuracy: " + percent);
+        return numMatches;
+    }
+
+    private int numValidationRows() {
+        return this.validationRows != null ? this.validationRows.length : this.validationData.size();
+    }
+
+    /**
+     * Trains on the training data and prints how much memory the tree takes.
+     */
+    public ModelFootprint footprint(Integer confidenceLevel, TrainingOptions options) {
+
+        ID3TreeNode tree = this.train(confidenceLevel, options);
+        ModelFootprint footprint = ModelFootprint.of(tree, this.getTrainingHeader());
+        System.out.println(footprint);
+        return footprint;
+    }
+
+    /**
+     * Trains on the training data, prunes the tree against the validation data with
+     * reduced-error pruning and prints what the pruning did.
+     */
+    public ID3TreeNode prune(Integer confidenceLevel, TrainingOptions options) {
+
+        ID3TreeNode tree = this.train(confidenceLevel, options);
+        PruningResult result = new ReducedErrorPruner(tree).prune(this.getValidationData());
+        Instances header = this.getTrainingHeader();
+        System.out.println(header.attribute(header.classIndex()));
+        tree.print();
+        System.out.println(result);
+        return tree;
+    }
+
+    /**
+     * Trains on the training data and compiles the tree into generated code for scoring
+     * rows laid out like it, checked against the tree on the validation data, or on the
+     * training data when there is none. Trees too big for generated code come back as a
+     * CompiledTree.
+     */
+    public TreeScorer compile(Integer confidenceLevel, TrainingOptions options) {
+        ID3TreeNode tree = this.train(confidenceLevel, options);
+        Instances checkData = this.getValidationData() != null ? this.getValidationData() : this.getTrainingData();
+        return BytecodeTree.compile(tree, this.getTrainingHeader(), checkData);
+    }
+
+    /**
+     * Trains on the training data and streams predictions for every row of inputPath into outputPath.
+     */
+    public void score(Integer confidenceLevel, TrainingOptions options, String inputPath, String outputPath) {
+
+        ID3TreeNode tree = this.train(confidenceLevel, options);
+        TreeScorer scorer = new CompiledTree(tree, this.getTrainingHeader());
+
+        try {
+            BatchScorer batchScorer = new BatchScorer(scorer, options.getParallelism(), BatchScorer.DEFAULT_CHUNK_SIZE);
+            batchScorer.score(inputPath, outputPath);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Trains on the training data and writes the compiled tree to modelPath.
+     */
+    public void save(Integer confidenceLevel, TrainingOptions options, String modelPath) {
+
+        ID3TreeNode tree = this.train(confidenceLevel, options);
+        try {
+            ModelFile.save(new CompiledTree(tree, this.getTrainingHeader()), modelPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Trains a bagged ensemble on the training data and prints its accuracy on the validation data.
+     */
+    public void evaluateEnsemble(Integer confidenceLevel, int numTrees, int attributesPerSplit, int numThreads, long seed) {
+
+        try {
+            long start = System.nanoTime();
+            BaggedEnsemble ensemble = new BaggedEnsemble(numTrees, confidenceLevel, attributesPerSplit, seed);
+            ensemble.train(this.encodedTrainingData, this.getTrainingRows(), numThreads);
+            System.out.println("Trained " + numTrees + " trees in " + (System.nanoTime() - start) / 1000000 + "ms");
+
+            Instances validationData = this.getValidationData();
+            Instance[] instances = new Instance[validationData.size()];
+            for (int i = 0; i < instances.length; i++) {
+                instances[i] = validationData.get(i);
+            }
+            double[] predictions = new double[instances.length];
+            ensemble.score(instances, instances.length, predictions);
+
+            int numMatches = 0;
+            for (int i = 0; i < instances.length; i++) {
+                if (predictions[i] == instances[i].classValue()) {
+                    numMatches++;
+                }
+            }
+            double percent = (double)numMatches / (double)instances.length;
+            System.out.println("Accuracy: " + percent);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Cross validates the training data at each confidence level and prints accuracy along
+     * with the wall clock and CPU time the whole grid took.
+     */
+    public List<CrossValidationResult> crossValidate(int numFolds, int[] confidenceLevels, int numThreads, long seed) {
+
+        List<CrossValidationResult> results = new ArrayList<>();
+        try {
+            CrossValidation crossValidation = new CrossValidation(this.encodedTrainingData, this.getTrainingRows(), numFolds, numThreads, seed);
+            results = crossValidation.run(confidenceLevels);
+
+            long cpuNanos = 0;
+            for (CrossValidationResult result : results) {
+                System.out.println(result);
+                cpuNanos += result.getCpuNanos();
+            }
+            System.out.println("Wall: " + crossValidation.getWallNanos() / 1000000 + "ms, cpu: " + cpuNanos / 1000000 + "ms on " + numThreads + " threads");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return results;
+    }
+
+    /**
+     * Reads a training file straight into encoded columns, on as many threads as there are processors.
+     */
+    private EncodedDataset getEncodedDataset(String path) {
+
+        EncodedDataset data = null;
+        try {
+            data = new DatasetReader(Runtime.getRuntime().availableProcessors()).read(path);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return data;
     }
 
     private Instances getInstances(String path) {
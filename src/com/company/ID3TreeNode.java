@@ -1,439 +1,653 @@
 package com.company;
 
-import com.company.AttrInfo;
 import weka.core.Attribute;
-import weka.core.AttributeStats;
 import weka.core.Instance;
 import weka.core.Instances;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Created by tmillett on 4/10/17.
+ *
+ * A node keeps only what scoring and pruning need, in primitives: children sit in an
+ * array indexed by attribute value code, a leaf is a node without one, and NaN or -1
+ * stand in for values that are not set. Nodes keep no link to their parent.
  */
 public class ID3TreeNode {
 
-    private ID3TreeNode parent;
-    private Integer confidenceLevel;
-    protected Attribute attribute;
-    private Map<Double, ID3TreeNode> children;
-    private Map<Double, Map<String, AttrInfo>> highestAttributeValueCounts;
-    private Double terminatedClassValue;
-    private Double parentAttrValue;
-
-    public ID3TreeNode(ID3TreeNode parent, Integer confidenceLevel) {
-        this.parent = parent;
-        this.confidenceLevel = confidenceLevel;
-        this.children = new HashMap<>();
-        this.terminatedClassValue = null;
-    }
-
-    protected Map<Double, Map<String, AttrInfo>> findHighestAttributeValueCounts(Instances data) {
-        // Loop through all instances. Find out the most common value for each attribute depending on the class value
-
-        // First get the counts of each variable depending on the class value
-        // {classValue1 -> {attribute1Name -> {attributeValue1 -> count, attributeValue2 -> count}, attribute2Name -> {attributeValue3 -> count, attributeValue4 -> count}},
-        //  classValue2 -> {attribute1Name -> {attributeValue1 -> count, attributeValue2 -> count}, attribute2Name -> {attributeValue3 -> count, attributeValue4 -> count}}
-
-        Map<Double, Map<Attribute, Map<Double, Integer>>> countsForEachAttributePerClassValue = new HashMap<>();
-
-        for (int i = 0; i < data.size(); i++) {
-            Instance instance = data.get(i);
-            Double classValue = instance.classValue();
-            Map<Attribute, Map<Double, Integer>> countsForEachAttribute = countsForEachAttributePerClassValue.get(classValue);
-            if (countsForEachAttribute == null) {
-                countsForEachAttribute = new HashMap<>();
-                countsForEachAttributePerClassValue.put(classValue,countsForEachAttribute);
-            }
-            for (int j = 0; j < instance.numValues(); j++) {
-                if (j == instance.classIndex()) continue;
-
-                Attribute attr = instance.attribute(j);
-                Double attrValue = instance.value(j);
-                if (isMissing(instance, j, attr, attrValue)) continue;
-                Map<Double, Integer> countsForSpecificAttribute = countsForEachAttribute.get(attr);
-                if (countsForSpecificAttribute == null) {
-                    countsForSpecificAttribute = new HashMap<>();
-                    countsForEachAttribute.put(attr,countsForSpecificAttribute);
-                }
-
-                Integer countForSpecificAttributeValue = countsForSpecificAttribute.get(attrValue);
-                if (countForSpecificAttributeValue == null) {
-                    countForSpecificAttributeValue = 0;
-                }
-                countsForSpecificAttribute.put(attrValue, ++countForSpecificAttributeValue);
-            }
-        }
-
-        // {classValue1 -> {attribute1 -> (attrType, attributeValue1, count), attribute2 -> (attrType, attributeValue2, count)},
-        //  classValue2 -> {attribute1 -> (attrType, attributeValue1, count), attribute2 -> (attrType, attributeValue2, count)}}
-        Map<Double, Map<String, AttrInfo>> highestAttributeValueCounts = new HashMap<>();
-
-        for (Double classValue: countsForEachAttributePerClassValue.keySet()) {
-            Map<Attribute, Map<Double, Integer>> countsForEachAttribute = countsForEachAttributePerClassValue.get(classValue);
-            for (Attribute attr: countsForEachAttribute.keySet()) {
-                Map<Double, Integer> countsForSpecificAttribute = countsForEachAttribute.get(attr);
-                Integer highestCount = Integer.MIN_VALUE;
-                Double highestAttrCountValue = null;
-                for (Double attrValue: countsForSpecificAttribute.keySet()) {
-                    Integer currentCount = countsForSpecificAttribute.get(attrValue);
-                    if (highestCount < currentCount) {
-                        highestCount = currentCount;
-                        highestAttrCountValue = attrValue;
-                    }
-                }
+    private static final int NO_CODE = -1;
+
+    private double confidence;
+    private Attribute attribute;
+    private ID3TreeNode[] children;
+    private double classValue;
+    private double threshold;
+    private int fallbackCode;
+    private int majorityClass;
+    private double chiSquared;
+    private int degreesOfFreedom;
+
+    /**
+     * A node for a tree pruned at a confidence level of 0 (95%), 1 (99%) or
+     * CriticalValuesTable.NO_PRUNING.
+     */
+    public ID3TreeNode(int confidenceLevel) {
+        this(CriticalValuesTable.confidence(confidenceLevel));
+    }
 
-                Map<String, AttrInfo> highestAttributeCountForSpecificAttribute = highestAttributeValueCounts.get(classValue);
-                if (highestAttributeCountForSpecificAttribute == null) {
-                    highestAttributeCountForSpecificAttribute = new HashMap<>();
-                    highestAttributeValueCounts.put(classValue, highestAttributeCountForSpecificAttribute);
-                }
-                AttrInfo attrInfo = new AttrInfo();
-                attrInfo.setAttribute(attr);
-                attrInfo.setCount(highestCount);
-                attrInfo.setValue(highestAttrCountValue);
-                highestAttributeCountForSpecificAttribute.put(attr.name(), attrInfo);
-            }
-        }
+    private ID3TreeNode(double confidence) {
+        this.confidence = confidence;
+        this.classValue = Double.NaN;
+        this.threshold = Double.NaN;
+        this.fallbackCode = NO_CODE;
+        this.majorityClass = NO_CODE;
+        this.chiSquared = Double.NaN;
+    }
 
-        return highestAttributeValueCounts;
+    /**
+     * A node for a tree pruned at any confidence between 0 and 1, or not pruned at
+     * CriticalValuesTable.NO_PRUNING_CONFIDENCE.
+     */
+    public static ID3TreeNode forConfidence(double confidence) {
+        CriticalValuesTable.checkConfidence(confidence);
+        return new ID3TreeNode(confidence);
     }
 
     public void setAttribute(Attribute attribute) {
         this.attribute = attribute;
     }
 
+    /**
+     * Adds the child for an attribute value, which must be a value code, or for a numeric
+     * split NumericSplit.LEFT or RIGHT.
+     */
     public void setChildForAttributeValue(Double attributeValue, ID3TreeNode node) {
-        this.children.put(attributeValue, node);
+        int code = attributeValue.intValue();
+        if (code < 0 || code != attributeValue) {
+            throw new IllegalArgumentException("Children are keyed by value code, not " + attributeValue);
+        }
+        if (this.children == null) {
+            int numCodes = this.attribute != null && this.attribute.isNominal() ? this.attribute.numValues() : 2;
+            this.children = new ID3TreeNode[Math.max(numCodes, code + 1)];
+        } else if (code >= this.children.length) {
+            this.children = Arrays.copyOf(this.children, code + 1);
+        }
+        this.children[code] = node;
     }
 
     public Attribute getAttribute() {
         return this.attribute;
     }
 
+    public boolean isLeaf() {
+        return this.children == null;
+    }
+
+    /**
+     * Number of child slots, some of which may be empty. 0 for a leaf.
+     */
+    public int numChildSlots() {
+        return this.children == null ? 0 : this.children.length;
+    }
+
+    /**
+     * The child for a value code, or null if there is none.
+     */
+    public ID3TreeNode getChild(int code) {
+        return this.children != null && code >= 0 && code < this.children.length ? this.children[code] : null;
+    }
+
+    /**
+     * A copy of the children keyed by attribute value, in value order.
+     */
     public Map<Double, ID3TreeNode> getChildren() {
-        return this.children;
+        Map<Double, ID3TreeNode> children = new TreeMap<>();
+        for (int code = 0; code < this.numChildSlots(); code++) {
+            if (this.children[code] != null) children.put((double) code, this.children[code]);
+        }
+        return children;
     }
 
-    private Attribute findBestAttribute(Instances data) {
-        // C_i = percent of ith class value to total number of all classes
-        // Calculate the entropy: E(S) = Sum(-p(C_i)log_2(C_i))
-        double entropy = getTableEntropy(data);
+    /**
+     * The class this node predicts on its own, NaN for a leaf that has none, or null if
+     * it routes to its children.
+     */
+    public Double getLeafClassValue() {
+        return this.children == null ? this.classValue : null;
+    }
 
-        // Create structure to aid in calculating gain
-        Map<Attribute, GainInfo> instanceRowsByClass = getAttributeGainInfoMap(data);
+    /**
+     * The child attribute value to follow when an instance's value was never seen in training.
+     */
+    public Double getFallbackAttrValue() {
+        return this.fallbackCode == NO_CODE ? null : (double) this.fallbackCode;
+    }
 
-        Attribute attributeWithHighestGain = calculateGain(entropy, instanceRowsByClass);
+    public void setFallbackAttrValue(Double fallbackAttrValue) {
+        this.fallbackCode = fallbackAttrValue == null ? NO_CODE : fallbackAttrValue.intValue();
+    }
 
-        return attributeWithHighestGain;
+    /**
+     * Makes this node a leaf predicting classValue, dropping any children it had.
+     */
+    public void setLeafClassValue(Double classValue) {
+        this.classValue = classValue == null ? Double.NaN : classValue;
+        this.children = null;
     }
 
-    private double getTableEntropy(Instances data) {
-        int totalNumOfRows = data.numInstances();
-        AttributeStats classStats = data.attributeStats(data.classIndex());
+    /**
+     * The most common class among the training rows that reached this node, or null if
+     * whatever built the node did not record it.
+     */
+    public Double getMajorityClassValue() {
+        return this.majorityClass == NO_CODE ? null : (double) this.majorityClass;
+    }
 
-        double entropy = 0.0;
-        for (int i = 0; i < classStats.nominalCounts.length; i++) {
-            int count = classStats.nominalCounts[i];
-            if (count != totalNumOfRows && count > 0) {
-                double percentage = (double) count / (double) totalNumOfRows;
-                entropy -= percentage * (Math.log10(percentage) / Math.log10(2));
-            }
-        }
-        return entropy;
+    public void setMajorityClassValue(Double majorityClassValue) {
+        this.majorityClass = majorityClassValue == null ? NO_CODE : majorityClassValue.intValue();
     }
 
-    private Attribute calculateGain(double entropy, Map<Attribute, GainInfo> instanceRowsByClass) {
-        Attribute attributeWithHighestGain = null;
-        double highestGain = -1.0;
-        for (Attribute attr : instanceRowsByClass.keySet()) {
-            double currentGain = instanceRowsByClass.get(attr).gain(entropy);
+    /**
+     * The chi-squared statistic of this node's split against the class, or null if
+     * whatever built the node did not record it.
+     */
+    public Double getChiSquared() {
+        return Double.isNaN(this.chiSquared) ? null : this.chiSquared;
+    }
 
-            if (currentGain > highestGain) {
-                attributeWithHighestGain = attr;
-                highestGain = currentGain;
+    /**
+     * The degrees of freedom the significance test looks the split's critical value up
+     * with, as CriticalValuesTable takes them.
+     */
+    public int getDegreesOfFreedom() {
+        return this.degreesOfFreedom;
+    }
 
-            }
-        }
+    public void setSplitStatistic(double chiSquared, int degreesOfFreedom) {
+        this.chiSquared = chiSquared;
+        this.degreesOfFreedom = degreesOfFreedom;
+    }
 
-        return attributeWithHighestGain;
-    }
-
-    private Map<Attribute, GainInfo> getAttributeGainInfoMap(Instances data) {
-        /*
-            Calculate the gain for each attribute
-            Data Structure is following HashMap
-            Key is attribute class
-            Value is another HashMap with Key being specific enumerations of the attribute,
-            Value being array of size [numClassValues] and counts of each type
-            eg {{M,F} ->{ M-> [2,3,1], F -> [4, 0, 1]}}
-        */
-
-        Map<Attribute, GainInfo> instanceRowsByClass = new HashMap<>(data.size());
-        for (int i = 0; i < data.size(); i++) {
-            Instance instance = data.instance(i);
-            double classValue = instance.classValue();
-            for (int j = 0; j < instance.numValues(); j++) {
-
-                if (j == instance.classIndex()) continue;
-
-                Attribute attr = instance.attribute(j);
-                Double attrValue = instance.value(j);
-                if (isMissing(instance, j, attr, attrValue)) {
-                    Map<String, AttrInfo> countsForSpecificAttribute = highestAttributeValueCounts.get(classValue);
-                    AttrInfo attrInfo = countsForSpecificAttribute.get(attr.name());
-                    if (attrInfo == null) {
-                        attrInfo = useBackupAttrInfo(attr);
-                    }
-                    if (attrInfo != null) {
-                        attrValue = attrInfo.getValue();
-                    } else {
-                        attr = null;
-                    }
-                }
+    /**
+     * A copy of this tree as training at confidence would have grown it, made in one
+     * pass over the nodes. Training tests each node on its own, top down, so a node whose
+     * split is not significant at that confidence becomes a leaf predicting its majority class
+     * and nothing below it matters. Nodes with no recorded statistic are kept as they are.
+     * The tree itself is not changed.
+     */
+    public ID3TreeNode atConfidence(double confidence) {
+        CriticalValuesTable.checkConfidence(confidence);
+        return this.copyAtConfidence(confidence);
+    }
 
-                if (attr != null) {
-                    GainInfo classCountPerAttrType = instanceRowsByClass.get(attr);
-                    if (classCountPerAttrType == null) {
-                        classCountPerAttrType = new GainInfo(attr, instance.classAttribute());
-                        instanceRowsByClass.put(attr, classCountPerAttrType);
-                    }
+    private ID3TreeNode copyAtConfidence(double confidence) {
+        ID3TreeNode copy = new ID3TreeNode(confidence);
+        copy.attribute = this.attribute;
+        copy.classValue = this.classValue;
+        copy.threshold = this.threshold;
+        copy.fallbackCode = this.fallbackCode;
+        copy.majorityClass = this.majorityClass;
+        copy.chiSquared = this.chiSquared;
+        copy.degreesOfFreedom = this.degreesOfFreedom;
+        if (this.children == null) {
+            return copy;
+        }
 
-                    classCountPerAttrType.addInstance(attrValue, classValue);
-                }
-            }
+        if (!Double.isNaN(this.chiSquared) && !copy.isBranchStatisticallySignificant(this.chiSquared, this.degreesOfFreedom)) {
+            copy.setLeafClassValue(this.getMajorityClassValue());
+            return copy;
         }
-        return instanceRowsByClass;
-    }
 
-//    private boolean isMissing(Instance instance, int j, Attribute attr, Double attrValue) {
-//        return instance.isMissing(j) || attr.value(attrValue.intValue()).equals("NULL") || Double.isNaN(attrValue.doubleValue());
-//    }
+        copy.children = new ID3TreeNode[this.children.length];
+        for (int code = 0; code < this.children.length; code++) {
+            if (this.children[code] != null) copy.children[code] = this.children[code].copyAtConfidence(confidence);
+        }
+        return copy;
+    }
 
-   private boolean isMissing(Instance instance, int j, Attribute attr, Double attrValue) {
-        return instance.isMissing(j) || Double.isNaN(attrValue.doubleValue());
+    /**
+     * For a split on a numeric attribute, the value at or below which rows go to child 0.0,
+     * with the rest going to child 1.0. Null for a split with one child per value.
+     */
+    public Double getThreshold() {
+        return Double.isNaN(this.threshold) ? null : this.threshold;
     }
 
-    private AttrInfo useBackupAttrInfo(Attribute attr) {
-        // If attrInfo is null here it means that for the given class value, there are NO populated values
-        // for that attribute. For now try and find an attrValue given a different class value
+    public void setThreshold(Double threshold) {
+        this.threshold = threshold == null ? Double.NaN : threshold;
+    }
 
-        int highestCount = Integer.MIN_VALUE;
-        AttrInfo highestAttrInfo = null;
-        for (Double aClassValue : this.highestAttributeValueCounts.keySet()) {
-            AttrInfo anAttrInfo = this.highestAttributeValueCounts.get(aClassValue).get(attr.name());
-            if (anAttrInfo != null && highestCount < anAttrInfo.getCount()) {
-                highestCount = anAttrInfo.getCount();
-                highestAttrInfo = anAttrInfo;
-            }
+    /**
+     * How the branch to the child for attrValue is labelled when printing.
+     */
+    protected String branchLabel(Double attrValue) {
+        if (!Double.isNaN(this.threshold)) {
+            return (attrValue.intValue() == NumericSplit.LEFT ? "<= " : "> ") + this.threshold;
         }
-
-        return highestAttrInfo;
+        if (attrValue.isNaN()) {
+            return "?";
+        }
+        return this.attribute.value(attrValue.intValue());
     }
 
     public void train(Instances data) {
+        this.train(data, new TrainingOptions());
+    }
 
-        this.highestAttributeValueCounts = this.findHighestAttributeValueCounts(data);
+    public void train(Instances data, TrainingOptions options) {
+        EncodedDataset encoded = new EncodedDataset(data);
+        this.train(encoded, encoded.labeledRows(), options);
+    }
 
+    /**
+     * Trains on a subset of an already encoded dataset. rows is reordered in place, so pass
+     * a copy if its order matters to the caller. Every row must have a class value.
+     * Returns what approximate split search did, if it was on.
+     */
+    ApproximateSplitReport train(EncodedDataset encoded, int[] rows, TrainingOptions options) {
+        TrainingContext context = new TrainingContext(encoded, rows, options);
+        this.train(context);
+        return context.getApproximateSplitReport();
+    }
 
-        // Find the attribute to split on to figure out the most information gain
-        Attribute root = this.findBestAttribute(data);
+    /**
+     * Trains on every row of the context, honouring its weights and attribute sampling.
+     */
+    void train(TrainingContext context) {
+        TrainingOptions options = context.getOptions();
+        boolean[] usedAttributes = new boolean[context.getData().numAttributes()];
+        context.prepareCounting();
+
+        if (options.getParallelism() <= 1) {
+            this.train(context, 0, context.getRows().length, usedAttributes, 0, null, null);
+            return;
+        }
 
-        // Find the index of the attribute class
-        this.setAttribute(root);
-        int attributeIndex = -1;
-        for (int i = 0; i < data.numAttributes(); i++) {
-            Attribute attr = data.attribute(i);
-            if (attr == root) {
-                attributeIndex = i;
-                break;
-            }
+        // Large children are forked onto the pool as they are found, small ones are trained inline
+        ForkJoinPool pool = new ForkJoinPool(options.getParallelism());
+        try {
+            context.setPool(pool);
+            pool.invoke(ForkJoinTask.adapt(() -> this.train(context, 0, context.getRows().length, usedAttributes, 0, null, null)));
+        } finally {
+            pool.shutdown();
         }
+    }
 
-        // Split all the instances into groups. The groups are split
-        // by the value of the Attribute root
-        // ex Attribute is Gender, subInstancesMap will be {M ->[I1,I3], F -> [I2,I4,I5]}
-
-        // While we are at it, decide if all the subInstances in a group have that same class value
-        // subInstancesShouldGrowMap will contain a a TRUE or FALSE for that attribute value
-        // If FALSE, then subInstancesClassValueMap will contain that class value
-        // If TRUE, then subInstancesShouldGrowMap
-        Map<Double, Instances> subInstancesMap = new HashMap<>();
-        Map<Double, Double> subInstancesClassValueMap = new HashMap<>();
-        Map<Double, Boolean> subInstancesShouldGrowMap = new HashMap<>();
-
-        for (int i = 0; i < data.size(); i++) {
-            Instance instance = data.instance(i);
-            Double attrValue = instance.value(root);
-            double classValue = instance.classValue();
-            if (isMissing(instance, attributeIndex, root, attrValue)) {
-                Map<String, AttrInfo> countsForSpecificAttribute = highestAttributeValueCounts.get(classValue);
-                attrValue = countsForSpecificAttribute.get(root.name()).getValue();
+    /**
+     * Trains this node on rows[from, to). classCounts are the class counts of those rows
+     * when the parent already knows them, or null for the root. nodeRows is the same rows
+     * as a bitmap when the parent counted with bitmaps, otherwise null.
+     */
+    private void train(TrainingContext context, int from, int to, boolean[] usedAttributes, int depth, int[] classCounts, RowBitmap nodeRows) {
+
+        EncodedDataset data = context.getData();
+        int[] rows = context.getRows();
+
+        // Count every candidate attribute against the class in one pass, then
+        // find the attribute to split on to figure out the most information gain.
+        // Numeric attributes are swept for their best threshold instead
+        long countingStart = TrainingMetrics.ENABLED ? System.nanoTime() : 0L;
+        boolean[] excludedAttributes = context.excludedAttributes(usedAttributes);
+        boolean[] tableExcludedAttributes = context.excludeNumeric(excludedAttributes);
+        ContingencyTables tables;
+        RowBitmap bitmap = null;
+        if (context.shouldApproximateSplit(to - from)) {
+            // Very large nodes can settle on an attribute from a sample of their rows
+            tables = this.countApproximateSplit(context, from, to, tableExcludedAttributes, classCounts);
+        } else {
+            // Large nodes over few values count faster by intersecting row bitmaps
+            tables = new ContingencyTables(data, tableExcludedAttributes, classCounts, context.getWeights());
+            if (context.shouldCountWithBitmaps(to - from, tableExcludedAttributes)) {
+                bitmap = nodeRows != null ? nodeRows : RowBitmap.of(rows, from, to);
+                tables.count(context.getBitmapIndex(), bitmap);
+            } else if (context.shouldSearchInParallel(to - from)) {
+                tables.countInParallel(rows, from, to, context.getOptions().getSplitSearchSliceSize());
+            } else {
+                tables.count(rows, from, to);
             }
+        }
+        int attributeIndex = tables.findBestAttribute();
+        NumericSplit numericSplit = this.findBestNumericSplit(context, from, to, excludedAttributes, tables, attributeIndex);
+        if (numericSplit != null) {
+            attributeIndex = numericSplit.getAttributeIndex();
+        }
+        if (attributeIndex == -1) {
+            // Every attribute has been used up on this branch, so settle on the most common class
+            this.setLeafClassValue(this.findMostCommonClassValue(tables.getClassCounts()));
+            if (TrainingMetrics.ENABLED) {
+                TrainingMetrics.nodeTrained(depth, to - from, null, System.nanoTime() - countingStart, 0L, 0L, false, false);
+            }
+            return;
+        }
 
+        Attribute root = data.attribute(attributeIndex);
+        this.setAttribute(root);
+        this.setMajorityClassValue(this.findMostCommonClassValue(tables.getClassCounts()));
 
-            Instances subInstances = subInstancesMap.get(attrValue);
-            if (subInstances == null) {
-                subInstances = new Instances(data, data.size());
-                subInstancesMap.put(attrValue, subInstances);
-            }
-            subInstances.add(instance);
+        // Decide up front where unseen values go at evaluation time. Missing values are
+        // imputed from the same tables, so the node keeps nothing else from training
+        if (numericSplit != null) {
+            this.threshold = numericSplit.getThreshold();
+            this.fallbackCode = numericSplit.getMissingGroup();
+        } else {
+            int backupCode = tables.backupCode(attributeIndex);
+            this.fallbackCode = backupCode == EncodedDataset.MISSING ? NO_CODE : backupCode;
+        }
 
-            Double existingClassValue = subInstancesClassValueMap.get(attrValue);
-            if (existingClassValue == null) {
-                existingClassValue = classValue;
-                subInstancesClassValueMap.put(attrValue, existingClassValue);
+        // The test only needs the tables, so a pruned node never partitions its rows
+        long significanceStart = TrainingMetrics.ENABLED ? System.nanoTime() : 0L;
+        // The statistic is kept on the node so the tree can be pruned again at another level
+        this.chiSquared = numericSplit != null
+                ? numericSplit.chiSquared(tables.getClassCounts(), tables.getTotal())
+                : tables.chiSquared(attributeIndex);
+        this.degreesOfFreedom = numericSplit != null ? 2 : data.numValues(attributeIndex);
+        Boolean isSignificant = isBranchStatisticallySignificant(this.chiSquared, this.degreesOfFreedom);
+        if (!isSignificant) {
+            this.setLeafClassValue(this.findMostCommonClassValue(tables.getClassCounts()));
+            if (TrainingMetrics.ENABLED) {
+                TrainingMetrics.nodeTrained(depth, to - from, root.name(), significanceStart - countingStart,
+                        0L, System.nanoTime() - significanceStart, true, false);
             }
+            return;
+        }
 
-            if (existingClassValue != classValue) {
-                subInstancesShouldGrowMap.put(attrValue, true);
+        long partitioningStart = TrainingMetrics.ENABLED ? System.nanoTime() : 0L;
+
+        // Split the node's rows into groups. The groups are split
+        // by the value of the Attribute root, or by which side of the threshold it falls
+        // ex Attribute is Gender, rows[from, to) becomes [M rows | F rows]
+
+        // The tables already say how big each group is and whether all the rows in a
+        // group have the same class value, so only the rows themselves need moving.
+        // With weights the tables count weight rather than rows, so sizes take a pass
+        int numCodes = numericSplit != null ? 2 : data.numValues(attributeIndex);
+        int[][] groupClassCounts = new int[numCodes][];
+        int[] groupSizes = new int[numCodes];
+        for (int code = 0; code < numCodes; code++) {
+            groupClassCounts[code] = numericSplit != null ? numericSplit.getClassCounts(code) : tables.getClassCounts(attributeIndex, code);
+            for (int count : groupClassCounts[code]) {
+                groupSizes[code] += count;
+            }
+        }
+        if (context.getWeights() != null) {
+            Arrays.fill(groupSizes, 0);
+            for (int i = from; i < to; i++) {
+                groupSizes[group(data, tables, numericSplit, attributeIndex, rows[i])]++;
             }
         }
 
-        Boolean isSignificant = isBranchStatisticallySignificant(data, root, subInstancesMap);
-
-        if (isSignificant) {
+        int[] groupStarts = new int[numCodes + 1];
+        groupStarts[0] = from;
+        for (int code = 0; code < numCodes; code++) {
+            groupStarts[code + 1] = groupStarts[code] + groupSizes[code];
+        }
 
-            // We have a chosen an attribute type and sorted the instances by the possible attribute values
-            // We have discovered if all the class values for a given attribute value match
-            // We are now ready to either grow the tree (because class values in a specific group do not match)
-            // Or add a leaf node with a specific attribute value and a specific class value
-            for (Double attrValue : subInstancesMap.keySet()) {
+        // Counting sort the rows by group through the scratch space, then copy them back in place.
+        // Groups are numbered in the order their attribute values first show up in the rows
+        int[] scratch = context.getScratch();
+        int[] rowGroup = context.getRowGroup();
+        int[] next = Arrays.copyOf(groupStarts, numCodes);
+        int[] groupOrder = new int[numCodes];
+        int numGroups = 0;
+        for (int i = from; i < to; i++) {
+            int row = rows[i];
+            int code = group(data, tables, numericSplit, attributeIndex, row);
+            if (next[code] == groupStarts[code]) {
+                groupOrder[numGroups++] = code;
+            }
+            rowGroup[row] = code;
+            scratch[next[code]++] = row;
+        }
+        System.arraycopy(scratch, from, rows, from, to - from);
+
+        // Split every pre-sorted numeric order the same way. The pass is stable, so each
+        // child's range stays sorted without ever sorting again
+        for (int j : context.getNumericAttributes()) {
+            int[] sorted = context.getSortedRows(j);
+            System.arraycopy(groupStarts, 0, next, 0, numCodes);
+            for (int i = from; i < to; i++) {
+                int row = sorted[i];
+                scratch[next[rowGroup[row]]++] = row;
+            }
+            System.arraycopy(scratch, from, sorted, from, to - from);
+        }
 
-                Instances subInstances = subInstancesMap.get(attrValue);
-                Boolean shouldGrowTree = subInstancesShouldGrowMap.get(attrValue);
+        if (TrainingMetrics.ENABLED) {
+            TrainingMetrics.nodeTrained(depth, to - from, root.name(), significanceStart - countingStart,
+                    System.nanoTime() - partitioningStart, partitioningStart - significanceStart,
+                    this.confidence != CriticalValuesTable.NO_PRUNING_CONFIDENCE, true);
+        }
 
-                if (shouldGrowTree != null && shouldGrowTree == true) {
-                    subInstances.deleteAttributeAt(attributeIndex);
-                    ID3TreeNode childNode = new ID3TreeNode(this, this.confidenceLevel);
-                    this.setChildForAttributeValue(attrValue, childNode);
-                    childNode.train(subInstances);
+        // We have a chosen an attribute type and sorted the rows by the possible attribute values
+        // We have discovered if all the class values for a given attribute value match
+        // We are now ready to either grow the tree (because class values in a specific group do not match)
+        // Or add a leaf node with a specific attribute value and a specific class value
+        // Children are added in the order their attribute values first show up in the rows
+        List<ForkJoinTask<?>> forkedChildren = new ArrayList<>();
+        for (int k = 0; k < numGroups; k++) {
+            int code = groupOrder[k];
+            Double attrValue = numericSplit != null ? (double) code : data.value(attributeIndex, code);
+            int[] childClassCounts = groupClassCounts[code];
+            int onlyClassCode = onlyClassCode(childClassCounts);
+            if (onlyClassCode == EncodedDataset.MISSING) {
+                // A numeric attribute can be split again further down at another threshold
+                boolean[] childUsedAttributes = usedAttributes.clone();
+                childUsedAttributes[attributeIndex] = numericSplit == null;
+
+                ID3TreeNode childNode = new ID3TreeNode(this.confidence);
+                this.setChildForAttributeValue(attrValue, childNode);
+
+                int childFrom = groupStarts[code];
+                int childTo = groupStarts[code + 1];
+                RowBitmap childRows = null;
+                if (bitmap != null && numericSplit == null
+                        && context.shouldCountWithBitmaps(childTo - childFrom, context.excludeNumeric(childUsedAttributes))) {
+                    childRows = childRows(context.getBitmapIndex(), tables, attributeIndex, code, bitmap);
+                }
+                RowBitmap finalChildRows = childRows;
+                if (context.shouldFork(childTo - childFrom)) {
+                    forkedChildren.add(ForkJoinTask.adapt(() -> childNode.train(context, childFrom, childTo, childUsedAttributes, depth + 1, childClassCounts, finalChildRows)).fork());
                 } else {
-                    Double existingClassValue = subInstancesClassValueMap.get(attrValue);
-
-                    ID3TreeLeaf leafNode = new ID3TreeLeaf(this, this.confidenceLevel);
-                    leafNode.setAttribute(this.attribute);
-
-                    leafNode.setClassValueForAttributeValue(attrValue, existingClassValue);
-                    this.setChildForAttributeValue(attrValue, leafNode);
+                    childNode.train(context, childFrom, childTo, childUsedAttributes, depth + 1, childClassCounts, childRows);
                 }
-            }
-        } else {
-            Map<Double, Integer> counts = new HashMap<>();
-            countNumOutcomes(data, counts);
-            Integer highestCount = Integer.MIN_VALUE;
-            Double highestClassValue = null;
-            for (Double classValue : counts.keySet()) {
-                Integer count = counts.get(classValue);
-                if (count > highestCount) {
-                    highestCount = count;
-                    highestClassValue = classValue;
+            } else {
+                ID3TreeNode leafNode = new ID3TreeNode(this.confidence);
+                leafNode.setLeafClassValue((double) onlyClassCode);
+                this.setChildForAttributeValue(attrValue, leafNode);
+                if (TrainingMetrics.ENABLED) {
+                    TrainingMetrics.leafBuilt(depth + 1);
                 }
             }
+        }
 
-            this.terminatedClassValue = highestClassValue;
+        for (ForkJoinTask<?> forkedChild : forkedChildren) {
+            forkedChild.join();
         }
     }
 
-    private Boolean isBranchStatisticallySignificant(Instances instances, Attribute attribute, Map<Double, Instances> subInstancesMap) {
-
-        if (this.confidenceLevel == 2) {
-            return true;
+    /**
+     * Tables for rows[from, to) from a sample of them. When the sample settles on a nominal
+     * attribute they hold only that attribute, counted over every row, otherwise the
+     * sample grew to cover the node and they hold every candidate exactly.
+     */
+    private ContingencyTables countApproximateSplit(TrainingContext context, int from, int to,
+                                                    boolean[] tableExcludedAttributes, int[] classCounts) {
+        ApproximateSplitSearch search = new ApproximateSplitSearch(context, from, to, tableExcludedAttributes);
+        if (!search.run()) {
+            return search.getTables();
         }
 
-//        Start off with entire table
-//        choose an attribute attr1
-//        get number of positives and negatives, total outcome for table -> totalPos, totalNeg, total
-//        collect sum of loop -> sumChi
-//        loop on each possible attr1Value -> attrValue
-//          find number of positives and negatives for attrValue and total outcomes -> attrValuePos, attrValueNeg attrValueTotal
-//          find expected positives for attrValue -> round(attrValueTotal * (totalPos/total)) -> expectedPos
-//          find expected negatives for attrValue -> attrValueTotal - expectedPos -> expectedNeg
-//          sumChi += ((attrValuePos-expectedPos)^2/expectedPos) + ((attrValueNeg-expectedNeg)^2/expectedNeg)
-
-        // {classValue1 -> count, classValue2 -> count}
-        Integer totalCount = instances.size();
-        Map<Double, Integer> totalNumOfEachOutcome = new HashMap<>();
-        countNumOutcomes(instances, totalNumOfEachOutcome);
-
-        Map<Double, Map<Double, Integer>> numOfEachOutcome = new HashMap<>();
-        for (Double attrValue: subInstancesMap.keySet()) {
-            Instances subInstances = subInstancesMap.get(attrValue);
-            Map<Double, Integer> counts = numOfEachOutcome.get(attrValue);
-            if (counts == null) {
-                counts = new HashMap<>();
-                numOfEachOutcome.put(attrValue,counts);
+        int attributeIndex = search.getAttributeIndex();
+        EncodedDataset data = context.getData();
+        boolean[] otherAttributes = new boolean[data.numAttributes()];
+        Arrays.fill(otherAttributes, true);
+        otherAttributes[attributeIndex] = false;
+        ContingencyTables tables = new ContingencyTables(data, otherAttributes, classCounts, context.getWeights());
+        tables.count(context.getRows(), from, to);
+
+        if (context.getOptions().isApproximateSplitAudit()) {
+            ContingencyTables exact = new ContingencyTables(data, tableExcludedAttributes, classCounts, context.getWeights());
+            exact.count(context.getRows(), from, to);
+            boolean disagreed = exact.findBestAttribute() != attributeIndex;
+            context.approximateSplitAudited(disagreed);
+            if (TrainingMetrics.ENABLED) {
+                TrainingMetrics.approximateSplitAudited(disagreed);
             }
+        }
+        return tables;
+    }
 
-            countNumOutcomes(subInstances,counts);
+    /**
+     * Best threshold split over the numeric candidates, or null if none has a higher gain
+     * than nominalAttribute. Ties go to the attribute that comes first in the dataset.
+     */
+    private NumericSplit findBestNumericSplit(TrainingContext context, int from, int to, boolean[] excludedAttributes,
+                                              ContingencyTables tables, int nominalAttribute) {
+        int[] numericAttributes = context.getNumericAttributes();
+        if (numericAttributes.length == 0) {
+            return null;
         }
 
-        Double subChiSquared = 0.0;
-        for (Double attrValue: numOfEachOutcome.keySet()) {
-            Map<Double, Integer> counts = numOfEachOutcome.get(attrValue);
-            Integer actualAttrValueCount = 0;
-            for (Double classValue: counts.keySet()) {
-                actualAttrValueCount += counts.get(classValue);
+        int[] classCounts = tables.getClassCounts();
+        int total = tables.getTotal();
+        double tableEntropy = tables.entropy();
+        NumericSplit[] splits = new NumericSplit[numericAttributes.length];
+        if (context.shouldSearchInParallel(to - from)) {
+            List<ForkJoinTask<?>> sweeps = new ArrayList<>();
+            for (int k = 0; k < numericAttributes.length; k++) {
+                int j = numericAttributes[k];
+                if (excludedAttributes[j]) continue;
+                int slot = k;
+                sweeps.add(ForkJoinTask.adapt(() -> splits[slot] = NumericSplit.find(context, j, from, to, classCounts, total, tableEntropy)));
+            }
+            ForkJoinTask.invokeAll(sweeps);
+        } else {
+            for (int k = 0; k < numericAttributes.length; k++) {
+                int j = numericAttributes[k];
+                if (excludedAttributes[j]) continue;
+                splits[k] = NumericSplit.find(context, j, from, to, classCounts, total, tableEntropy);
             }
+        }
 
-            for (Double classValue: counts.keySet()) {
-                Integer totalCountForClassValue = totalNumOfEachOutcome.get(classValue);
-                if (totalCountForClassValue > 0) {
-                    Double expectedAttrValueCountForClassValue = actualAttrValueCount.doubleValue() * (totalCountForClassValue.doubleValue() / totalCount.doubleValue());
-                    Integer actualAttrValueCountForClassValue = counts.get(classValue);
-                    subChiSquared += (Math.pow(actualAttrValueCountForClassValue - expectedAttrValueCountForClassValue, 2)/expectedAttrValueCountForClassValue);
-                }
+        NumericSplit best = null;
+        int bestAttribute = nominalAttribute;
+        double highestGain = nominalAttribute == -1 ? -1.0 : tables.getGain(nominalAttribute);
+        for (NumericSplit split : splits) {
+            if (split == null) continue;
+            if (split.getGain() > highestGain || (split.getGain() == highestGain && split.getAttributeIndex() < bestAttribute)) {
+                best = split;
+                bestAttribute = split.getAttributeIndex();
+                highestGain = split.getGain();
             }
+        }
+        return best;
+    }
 
+    // The child group a row goes to: its value code, its imputed code, or its side of the threshold
+    private static int group(EncodedDataset data, ContingencyTables tables, NumericSplit numericSplit, int attributeIndex, int row) {
+        int code = data.code(attributeIndex, row);
+        if (numericSplit != null) {
+            return numericSplit.group(code);
         }
+        if (code == EncodedDataset.MISSING) {
+            return tables.imputedCode(attributeIndex, data.classCode(row));
+        }
+        return code;
+    }
 
-        CriticalValuesTable table = new CriticalValuesTable();
-        Double chiSquaredValue = table.getChiSquaredValue(attribute.numValues(), this.confidenceLevel);
+    // A child's rows from bitmap ANDs: the node's rows with the value, plus those missing it whose class imputes to it
+    private static RowBitmap childRows(BitmapIndex index, ContingencyTables tables, int attributeIndex, int code, RowBitmap nodeRows) {
+        RowBitmap[] valueRows = index.getValueRows(attributeIndex);
+        RowBitmap childRows = nodeRows.and(valueRows[code + 1]);
+        RowBitmap missingRows = null;
+        for (int c = 0; c < tables.getClassCounts().length; c++) {
+            if (tables.imputedCode(attributeIndex, c) != code) continue;
+            if (missingRows == null) {
+                missingRows = nodeRows.and(valueRows[0]);
+            }
+            childRows = childRows.or(missingRows.and(index.getClassRows(c)));
+        }
+        return childRows;
+    }
 
-        return subChiSquared > chiSquaredValue;
+    /**
+     * The class of every row if they all share one, otherwise MISSING.
+     */
+    private static int onlyClassCode(int[] counts) {
+        int onlyClassCode = EncodedDataset.MISSING;
+        for (int classCode = 0; classCode < counts.length; classCode++) {
+            if (counts[classCode] == 0) continue;
+            if (onlyClassCode != EncodedDataset.MISSING) {
+                return EncodedDataset.MISSING;
+            }
+            onlyClassCode = classCode;
+        }
+        return onlyClassCode;
     }
 
-    private void countNumOutcomes(Instances instances, Map<Double, Integer> totalNumOfEachOutcome) {
-        for (int i = 0; i < instances.size(); i++) {
-            Instance instance = instances.get(i);
-            Double classValue = instance.classValue();
-            Integer numOutcome = totalNumOfEachOutcome.get(classValue);
-            if (numOutcome == null) {
-                numOutcome = 0;
+    private Double findMostCommonClassValue(int[] counts) {
+        int highestCount = 0;
+        Double highestClassValue = null;
+        for (int classCode = 0; classCode < counts.length; classCode++) {
+            if (counts[classCode] > highestCount) {
+                highestCount = counts[classCode];
+                highestClassValue = (double) classCode;
             }
-            totalNumOfEachOutcome.put(classValue, ++numOutcome);
         }
+        return highestClassValue;
+    }
+
+    private Boolean isBranchStatisticallySignificant(double subChiSquared, int numAttrValues) {
+
+        if (this.confidence == CriticalValuesTable.NO_PRUNING_CONFIDENCE) {
+            return true;
+        }
+
+        // Split search already counted every value of the attribute against the class,
+        // missing values included, so the statistic comes straight from those counts
+        double chiSquaredValue = CriticalValuesTable.criticalValueAt(numAttrValues, this.confidence);
+
+        return subChiSquared > chiSquaredValue;
     }
 
     public void print() {
-        print("", true);
+        print("", true, null);
     }
 
-    private void print(String prefix, boolean isTail) {
-        printThis(prefix, isTail);
-        List<ID3TreeNode> children = new ArrayList<>();
-        for (Double attrValue : this.children.keySet()) {
-            ID3TreeNode n = this.children.get(attrValue);
-            n.parentAttrValue = attrValue;
-            children.add(this.children.get(attrValue));
-        }
-        for (int i = 0; i < children.size() - 1; i++) {
-            children.get(i).print(prefix + (isTail ? "    " : "│   "), false);
+    // The branch label is passed down rather than looked up through a parent, so printing
+    // never writes to the tree and is safe while other threads evaluate it
+    private void print(String prefix, boolean isTail, String branchLabel) {
+        printThis(prefix, isTail, branchLabel);
+        int last = this.numChildSlots() - 1;
+        while (last >= 0 && this.children[last] == null) {
+            last--;
         }
-        if (children.size() > 0) {
-            children.get(children.size() - 1)
-                    .print(prefix + (isTail ?"    " : "│   "), true);
+        for (int code = 0; code <= last; code++) {
+            if (this.children[code] == null) continue;
+            this.children[code].print(prefix + (isTail ? "    " : "│   "), code == last, this.branchLabel((double) code));
         }
     }
 
-    public void printThis(String prefix, boolean isTail) {
+    /**
+     * Prints this node alone. branchLabel is how the parent labels the branch to it, or
+     * null for the root.
+     */
+    public void printThis(String prefix, boolean isTail, String branchLabel) {
         String toPrint = prefix + (isTail ? "└── " : "├── ");
-        if (this.parent != null) {
-            String valString = this.parent.attribute.value(this.parentAttrValue.intValue());
-            toPrint += valString + " ~> ";
+        if (this.children == null && this.attribute == null && branchLabel != null) {
+            // A leaf grown from rows that all share a class
+            System.out.println(toPrint + branchLabel + " >> " + this.classValue);
+            return;
+        }
+
+        if (branchLabel != null) {
+            toPrint += branchLabel + " ~> ";
         }
 
         if (this.attribute != null) {
@@ -443,17 +657,20 @@ public class ID3TreeNode {
             toPrint += "??";
         }
 
-        if (this.terminatedClassValue != null) {
-            toPrint += " --> " + this.terminatedClassValue;
+        if (this.children == null && !Double.isNaN(this.classValue)) {
+            toPrint += " --> " + this.classValue;
         }
 
         System.out.println(toPrint);
     }
 
+    /**
+     * Predicts the class value of an instance, or NaN if it reaches a node with nowhere to send it.
+     */
     public Double evaluateInstance(Instance instance) {
 
-        if (this.terminatedClassValue != null) {
-            return this.terminatedClassValue;
+        if (this.children == null) {
+            return this.classValue;
         }
 
         // Make sure the attributes match
@@ -466,44 +683,18 @@ public class ID3TreeNode {
                 break;
             }
         }
-        Double attributeValue = instance.value(index);
-        ID3TreeNode node = this.children.get(attributeValue);
-        if (node == null) {
-            AttrInfo attrInfo = useBackupAttrInfo(this.attribute);
-            if (attrInfo == null) {
-                System.out.println("uh oh");
+        double attributeValue = instance.value(index);
+        ID3TreeNode node = null;
+        if (!Double.isNaN(attributeValue)) {
+            if (!Double.isNaN(this.threshold)) {
+                node = this.getChild(attributeValue <= this.threshold ? NumericSplit.LEFT : NumericSplit.RIGHT);
+            } else if (attributeValue == (int) attributeValue) {
+                node = this.getChild((int) attributeValue);
             }
-            attributeValue = attrInfo.getValue();
-            node = this.children.get(attributeValue);
         }
-        return node.evaluateInstance(instance);
-    }
-}
-
-class ID3TreeLeaf extends ID3TreeNode {
-
-    private Double attributeValue;
-    private Double classValueForAttributeValue;
-    public ID3TreeLeaf(ID3TreeNode parent, Integer confidenceLevel) {
-        super(parent, confidenceLevel);
-    }
-
-    public void setClassValueForAttributeValue(Double attrValue, Double classValueForAttributeValue) {
-        this.attributeValue = attrValue;
-        this.classValueForAttributeValue = classValueForAttributeValue;
-    }
-
-    public void printThis(String prefix, boolean isTail) {
-        String valString;
-        if (this.attributeValue.equals(Double.NaN)) {
-            valString = "?";
-        } else {
-            valString = this.attribute.value(this.attributeValue.intValue());
+        if (node == null) {
+            node = this.getChild(this.fallbackCode);
         }
-        System.out.println(prefix + (isTail ? "└── " : "├── ") + valString + " >> " + this.classValueForAttributeValue);
-    }
-
-    public Double evaluateInstance(Instance instance) {
-        return this.classValueForAttributeValue;
+        return node != null ? node.evaluateInstance(instance) : Double.NaN;
     }
 }
@@ -0,0 +1,83 @@
+package com.company;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. Values are bucketed by their highest
+ * set bit and the next four bits, so any percentile read back is within about 6% of the
+ * true value while recording costs one array increment.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private AtomicLongArray counts;
+    private LongAccumulator max;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray((64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS);
+        this.max = new LongAccumulator(Math::max, 0L);
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0L);
+        this.counts.incrementAndGet(bucket(value));
+        this.max.accumulate(value);
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    // Largest value that falls in the bucket
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < this.counts.length(); i++) {
+            count += this.counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * The latency that percentile percent of recorded values are at or below, or 0 if
+     * nothing has been recorded.
+     */
+    public long percentile(double percent) {
+        if (percent < 0.0 || percent > 100.0) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+
+        long[] snapshot = new long[this.counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = this.counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0L;
+
+        long rank = Math.max(1L, (long) Math.ceil(percent / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(highestValue(i), this.max.get());
+        }
+        return this.max.get();
+    }
+
+    public long max() {
+        return this.max.get();
+    }
+}
@@ -1,12 +1,67 @@
 package com.company;
 
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+
 public class Main {
 
+    private static int approximateSplitMinRows = 0;
+    private static double approximateSplitDelta = TrainingOptions.DEFAULT_APPROXIMATE_SPLIT_DELTA;
+    private static boolean approximateSplitAudit = false;
+
     public static void main(String[] args) {
 
+        // Training flags go before the mode, e.g. -approximate 50000 -audit -sweep train.arff
+        args = parseTrainingFlags(args);
+
+        if (args.length > 0 && args[0].equals("-score")) {
+            score(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-serve")) {
+            serve(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-prune")) {
+            prune(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-sweep")) {
+            sweep(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-holdout")) {
+            holdout(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-footprint")) {
+            footprint(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-save")) {
+            save(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-outofcore")) {
+            trainOutOfCore(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-cv")) {
+            crossValidate(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-bag")) {
+            bag(args);
+            return;
+        }
+
         String trainingDataPath;
         String validationDataPath = null;
         int confidenceLevel = 0;
+        int parallelism = 1;
 
         if (args.length > 0) {
             trainingDataPath = args[0];
@@ -14,6 +69,9 @@ public class Main {
                 validationDataPath = args[1];
                 if (args.length > 2) {
                     confidenceLevel = Integer.parseInt(args[2]);
+                    if (args.length > 3) {
+                        parallelism = Integer.parseInt(args[3]);
+                    }
                 } else {
                     confidenceLevel = 2;
                 }
@@ -37,7 +95,259 @@ public class Main {
         }
 
 
+        TrainingOptions options = newTrainingOptions();
+        options.setParallelism(parallelism);
+
         ID3DecisionTree tree = new ID3DecisionTree(trainingDataPath, validationDataPath);
-        tree.evaluate(confidenceLevel);
+        tree.evaluate(confidenceLevel, options);
+    }
+
+    // [-approximate <minRows>[:delta]] [-audit]
+    private static String[] parseTrainingFlags(String[] args) {
+        int k = 0;
+        while (k < args.length) {
+            if (args[k].equals("-approximate") && k + 1 < args.length) {
+                String[] parts = args[k + 1].split(":");
+                approximateSplitMinRows = Integer.parseInt(parts[0]);
+                if (parts.length > 1) {
+                    approximateSplitDelta = Double.parseDouble(parts[1]);
+                }
+                k += 2;
+            } else if (args[k].equals("-audit")) {
+                approximateSplitAudit = true;
+                k++;
+            } else {
+                break;
+            }
+        }
+        return Arrays.copyOfRange(args, k, args.length);
+    }
+
+    // Options for every mode, with the training flags applied
+    private static TrainingOptions newTrainingOptions() {
+        TrainingOptions options = new TrainingOptions();
+        options.setApproximateSplits(approximateSplitMinRows, approximateSplitDelta);
+        options.setApproximateSplitAudit(approximateSplitAudit);
+        return options;
+    }
+
+    // -score <trainingData or model> <input> <output> [confidenceLevel] [threads]
+    private static void score(String[] args) {
+        if (args.length < 4) {
+            System.out.println("Usage: -score <trainingData or model> <input> <output> [confidenceLevel] [threads]");
+            return;
+        }
+
+        int confidenceLevel = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+        TrainingOptions options = newTrainingOptions();
+        options.setParallelism(args.length > 5 ? Integer.parseInt(args[5]) : Runtime.getRuntime().availableProcessors());
+
+        if (ModelFile.isModelFile(args[1])) {
+            // A saved model is scored as is, without retraining
+            try {
+                long start = System.nanoTime();
+                MappedTree model = ModelFile.load(args[1]);
+                System.out.println("Loaded " + model.numNodes() + " nodes in " + (System.nanoTime() - start) / 1000000 + "ms");
+
+                BatchScorer batchScorer = new BatchScorer(model, options.getParallelism(), BatchScorer.DEFAULT_CHUNK_SIZE);
+                batchScorer.score(args[2], args[3]);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        ID3DecisionTree tree = new ID3DecisionTree(args[1]);
+        tree.score(confidenceLevel, options, args[2], args[3]);
+    }
+
+    // -serve <trainingData or model> [port] [confidenceLevel] [threads] [modelDirectory]
+    private static void serve(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: -serve <trainingData or model> [port] [confidenceLevel] [threads] [modelDirectory]");
+            return;
+        }
+
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : ScoringServer.DEFAULT_PORT;
+        int confidenceLevel = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        TrainingOptions options = newTrainingOptions();
+        options.setParallelism(args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors());
+
+        try {
+            TreeScorer scorer;
+            if (ModelFile.isModelFile(args[1])) {
+                scorer = ModelFile.load(args[1]);
+            } else {
+                ID3DecisionTree tree = new ID3DecisionTree(args[1]);
+                scorer = tree.compile(confidenceLevel, options);
+                if (!(scorer instanceof BytecodeTree)) {
+                    System.out.println("Tree is too big for generated code, scoring it from its node arrays");
+                }
+            }
+
+            // Models can only be swapped in from a directory named up front
+            String modelDirectory = args.length > 5 ? args[5] : null;
+            ScoringServer server = new ScoringServer(scorer, port, modelDirectory);
+            server.start();
+            System.out.println("Serving on http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort() + "/score");
+            if (modelDirectory != null) {
+                System.out.println("Models in " + modelDirectory + " can be swapped in with POST /model");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // -prune <trainingData> <validationData> [confidenceLevel] [threads]
+    private static void prune(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: -prune <trainingData> <validationData> [confidenceLevel] [threads]");
+            return;
+        }
+
+        int confidenceLevel = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        TrainingOptions options = newTrainingOptions();
+        options.setParallelism(args.length > 4 ? Integer.parseInt(args[4]) : 1);
+
+        ID3DecisionTree tree = new ID3DecisionTree(args[1], args[2]);
+        tree.prune(confidenceLevel, options);
+    }
+
+    // -sweep <trainingData> [validationData or -] [confidences] [threads]
+    private static void sweep(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: -sweep <trainingData> [validationData or -] [confidences] [threads]");
+            System.out.println("  confidences is a comma separated list such as 0.9,0.95,0.99, where 0 means no pruning");
+            return;
+        }
+
+        String validationDataPath = args.length > 2 && !args[2].equals("-") ? args[2] : null;
+        String[] values = (args.length > 3 ? args[3] : "0.95,0.99,0").split(",");
+        double[] confidences = new double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            confidences[i] = Double.parseDouble(values[i].trim());
+        }
+        TrainingOptions options = newTrainingOptions();
+        options.setParallelism(args.length > 4 ? Integer.parseInt(args[4]) : 1);
+
+        ID3DecisionTree tree = new ID3DecisionTree(args[1], validationDataPath);
+        tree.sweep(confidences, options);
+    }
+
+    // -holdout <trainingData> <random|stratified|every> <fraction or k> [confidenceLevel] [seed]
+    private static void holdout(String[] args) {
+        if (args.length < 4) {
+            System.out.println("Usage: -holdout <trainingData> <random|stratified|every> <fraction or k> [confidenceLevel] [seed]");
+            return;
+        }
+
+        int confidenceLevel = args.length > 4 ? Integer.parseInt(args[4]) : 2;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : 1L;
+
+        try {
+            EncodedDataset data = new DatasetReader(Runtime.getRuntime().availableProcessors()).read(args[1]);
+            DatasetSplitter splitter = new DatasetSplitter(data, seed);
+            DatasetSplit split;
+            if (args[2].equals("random")) {
+                split = splitter.random(Double.parseDouble(args[3]));
+            } else if (args[2].equals("stratified")) {
+                split = splitter.stratified(Double.parseDouble(args[3]));
+            } else if (args[2].equals("every")) {
+                split = splitter.everyKth(Integer.parseInt(args[3]));
+            } else {
+                System.out.println("Unknown split " + args[2] + ", expected random, stratified or every");
+                return;
+            }
+            System.out.println(split);
+
+            ID3DecisionTree tree = new ID3DecisionTree(split);
+            tree.evaluate(confidenceLevel, newTrainingOptions());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    // -footprint <trainingData> [confidenceLevel] [threads]
+    private static void footprint(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: -footprint <trainingData> [confidenceLevel] [threads]");
+            return;
+        }
+
+        int confidenceLevel = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        TrainingOptions options = newTrainingOptions();
+        options.setParallelism(args.length > 3 ? Integer.parseInt(args[3]) : 1);
+
+        ID3DecisionTree tree = new ID3DecisionTree(args[1]);
+        tree.footprint(confidenceLevel, options);
+    }
+
+    // -save <trainingData> <model> [confidenceLevel] [threads]
+    private static void save(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: -save <trainingData> <model> [confidenceLevel] [threads]");
+            return;
+        }
+
+        int confidenceLevel = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        TrainingOptions options = newTrainingOptions();
+        options.setParallelism(args.length > 4 ? Integer.parseInt(args[4]) : 1);
+
+        ID3DecisionTree tree = new ID3DecisionTree(args[1]);
+        tree.save(confidenceLevel, options, args[2]);
+    }
+
+    // -cv <trainingData> [folds] [threads] [seed]
+    private static void crossValidate(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: -cv <trainingData> [folds] [threads] [seed]");
+            return;
+        }
+
+        int numFolds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int numThreads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 1L;
+
+        ID3DecisionTree tree = new ID3DecisionTree(args[1]);
+        tree.crossValidate(numFolds, new int[]{0, 1, 2}, numThreads, seed);
+    }
+
+    // -bag <trainingData> <validationData> [trees] [attributesPerSplit] [confidenceLevel] [threads] [seed]
+    private static void bag(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: -bag <trainingData> <validationData> [trees] [attributesPerSplit] [confidenceLevel] [threads] [seed]");
+            return;
+        }
+
+        int numTrees = args.length > 3 ? Integer.parseInt(args[3]) : 50;
+        int attributesPerSplit = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        int confidenceLevel = args.length > 5 ? Integer.parseInt(args[5]) : 2;
+        int numThreads = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+        long seed = args.length > 7 ? Long.parseLong(args[7]) : 1L;
+
+        ID3DecisionTree tree = new ID3DecisionTree(args[1], args[2]);
+        tree.evaluateEnsemble(confidenceLevel, numTrees, attributesPerSplit, numThreads, seed);
+    }
+
+    // -outofcore <trainingData> <model> [confidenceLevel]
+    private static void trainOutOfCore(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: -outofcore <trainingData> <model> [confidenceLevel]");
+            return;
+        }
+
+        int confidenceLevel = args.length > 3 ? Integer.parseInt(args[3]) : 2;
+        try {
+            OutOfCoreTrainer trainer = new OutOfCoreTrainer(args[1], confidenceLevel);
+            ID3TreeNode tree = trainer.train();
+            System.out.println("Trained in " + trainer.getNumPasses() + " passes over " + args[1]);
+
+            Instances header = new ConverterUtils.DataSource(args[1]).getStructure();
+            if (header.classIndex() == -1)
+                header.setClassIndex(header.numAttributes() - 1);
+            ModelFile.save(new CompiledTree(tree, header), args[2]);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
     }
 }
@@ -0,0 +1,112 @@
+package com.company;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A CompiledTree read straight out of a memory mapped ModelFile. Only absolute reads are
+ * made against the buffer, so one instance can be shared between threads.
+ */
+public final class MappedTree implements TreeScorer {
+
+    private final ByteBuffer buffer;
+    private final Instances header;
+    private final int numNodes;
+    private final int numSlots;
+    private final int nodeClassAt;
+    private final int childKeysAt;
+    private final int nodeAttributeAt;
+    private final int childOffsetAt;
+    private final int childCountAt;
+    private final int fallbackChildAt;
+    private final int childNodesAt;
+    private final int nodeKindAt;
+
+    MappedTree(ByteBuffer buffer, int position, Instances header) {
+        this.buffer = buffer;
+        this.header = header;
+        this.numNodes = buffer.getInt(position);
+        this.numSlots = buffer.getInt(position + 4);
+
+        this.nodeClassAt = position + 8;
+        this.childKeysAt = this.nodeClassAt + 8 * this.numNodes;
+        this.nodeAttributeAt = this.childKeysAt + 8 * this.numSlots;
+        this.childOffsetAt = this.nodeAttributeAt + 4 * this.numNodes;
+        this.childCountAt = this.childOffsetAt + 4 * this.numNodes;
+        this.fallbackChildAt = this.childCountAt + 4 * this.numNodes;
+        this.childNodesAt = this.fallbackChildAt + 4 * this.numNodes;
+        this.nodeKindAt = this.childNodesAt + 4 * this.numSlots;
+    }
+
+    private int child(int node, double value) {
+        int fallback = this.buffer.getInt(this.fallbackChildAt + 4 * node);
+        if (Double.isNaN(value)) {
+            return fallback;
+        }
+
+        int count = this.buffer.getInt(this.childCountAt + 4 * node);
+        int offset = this.buffer.getInt(this.childOffsetAt + 4 * node);
+        byte kind = this.buffer.get(this.nodeKindAt + node);
+        if (kind == CompiledTree.THRESHOLD) {
+            double threshold = this.buffer.getDouble(this.childKeysAt + 8 * offset);
+            return this.buffer.getInt(this.childNodesAt + 4 * (value <= threshold ? offset : offset + 1));
+        }
+        if (kind == CompiledTree.KEYED) {
+            // Binary search over the sorted keys, the same as CompiledTree
+            int low = offset;
+            int high = offset + count - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                double key = this.buffer.getDouble(this.childKeysAt + 8 * mid);
+                if (key < value) {
+                    low = mid + 1;
+                } else if (key > value) {
+                    high = mid - 1;
+                } else {
+                    return this.buffer.getInt(this.childNodesAt + 4 * mid);
+                }
+            }
+            return fallback;
+        }
+
+        int code = (int) value;
+        if (code < 0 || code >= count) {
+            return fallback;
+        }
+        return this.buffer.getInt(this.childNodesAt + 4 * (offset + code));
+    }
+
+    public double score(double[] values) {
+        int node = 0;
+        while (node != CompiledTree.NO_CHILD) {
+            int attributeIndex = this.buffer.getInt(this.nodeAttributeAt + 4 * node);
+            if (attributeIndex == CompiledTree.LEAF) {
+                return this.buffer.getDouble(this.nodeClassAt + 8 * node);
+            }
+            node = this.child(node, values[attributeIndex]);
+        }
+        return Double.NaN;
+    }
+
+    public double score(Instance instance) {
+        int node = 0;
+        while (node != CompiledTree.NO_CHILD) {
+            int attributeIndex = this.buffer.getInt(this.nodeAttributeAt + 4 * node);
+            if (attributeIndex == CompiledTree.LEAF) {
+                return this.buffer.getDouble(this.nodeClassAt + 8 * node);
+            }
+            node = this.child(node, instance.value(attributeIndex));
+        }
+        return Double.NaN;
+    }
+
+    public Instances getHeader() {
+        return this.header;
+    }
+
+    public int numNodes() {
+        return this.numNodes;
+    }
+}
@@ -0,0 +1,155 @@
+package com.company;
+
+/**
+ * A point in time copy of the TrainingMetrics counters. Times are in nanoseconds and
+ * summed over every thread, so with parallel training they can exceed wall time.
+ */
+public class MetricsSnapshot {
+
+    private final long nodesBuilt;
+    private final long leavesBuilt;
+    private final long significanceTests;
+    private final long prunedNodes;
+    private final long countingNanos;
+    private final long partitioningNanos;
+    private final long significanceNanos;
+    private final long[] rowsScannedPerLevel;
+    private final long[] nodesPerDepth;
+    private final long instancesEvaluated;
+    private final long evaluationNanos;
+    private final long approximateSearches;
+    private final long approximateSplits;
+    private final long rowsSampled;
+    private final long approximateAudits;
+    private final long approximateDisagreements;
+
+    MetricsSnapshot(long nodesBuilt, long leavesBuilt, long significanceTests, long prunedNodes,
+                    long countingNanos, long partitioningNanos, long significanceNanos,
+                    long[] rowsScannedPerLevel, long[] nodesPerDepth,
+                    long instancesEvaluated, long evaluationNanos, long approximateSearches,
+                    long approximateSplits, long rowsSampled, long approximateAudits, long approximateDisagreements) {
+        this.nodesBuilt = nodesBuilt;
+        this.leavesBuilt = leavesBuilt;
+        this.significanceTests = significanceTests;
+        this.prunedNodes = prunedNodes;
+        this.countingNanos = countingNanos;
+        this.partitioningNanos = partitioningNanos;
+        this.significanceNanos = significanceNanos;
+        this.rowsScannedPerLevel = rowsScannedPerLevel;
+        this.nodesPerDepth = nodesPerDepth;
+        this.instancesEvaluated = instancesEvaluated;
+        this.evaluationNanos = evaluationNanos;
+        this.approximateSearches = approximateSearches;
+        this.approximateSplits = approximateSplits;
+        this.rowsSampled = rowsSampled;
+        this.approximateAudits = approximateAudits;
+        this.approximateDisagreements = approximateDisagreements;
+    }
+
+    /**
+     * Nodes that went through split search, whether they ended up splitting or not.
+     */
+    public long getNodesBuilt() {
+        return this.nodesBuilt;
+    }
+
+    /**
+     * Children that became leaves straight away because all of their rows share a class.
+     */
+    public long getLeavesBuilt() {
+        return this.leavesBuilt;
+    }
+
+    public long getSignificanceTests() {
+        return this.significanceTests;
+    }
+
+    public long getPrunedNodes() {
+        return this.prunedNodes;
+    }
+
+    public long getCountingNanos() {
+        return this.countingNanos;
+    }
+
+    public long getPartitioningNanos() {
+        return this.partitioningNanos;
+    }
+
+    public long getSignificanceNanos() {
+        return this.significanceNanos;
+    }
+
+    /**
+     * Rows counted by split search at each depth, with the root at 0.
+     */
+    public long[] getRowsScannedPerLevel() {
+        return this.rowsScannedPerLevel.clone();
+    }
+
+    /**
+     * Nodes and leaves at each depth, with the root at 0.
+     */
+    public long[] getNodesPerDepth() {
+        return this.nodesPerDepth.clone();
+    }
+
+    public long getInstancesEvaluated() {
+        return this.instancesEvaluated;
+    }
+
+    public long getEvaluationNanos() {
+        return this.evaluationNanos;
+    }
+
+    /**
+     * Nodes that searched for their split on a sample of their rows.
+     */
+    public long getApproximateSearches() {
+        return this.approximateSearches;
+    }
+
+    /**
+     * Sampled searches that settled on an attribute before falling back to exact counting.
+     */
+    public long getApproximateSplits() {
+        return this.approximateSplits;
+    }
+
+    public long getRowsSampled() {
+        return this.rowsSampled;
+    }
+
+    /**
+     * Sampled splits that were also counted exactly, and how many of those would have gone to another attribute.
+     */
+    public long getApproximateAudits() {
+        return this.approximateAudits;
+    }
+
+    public long getApproximateDisagreements() {
+        return this.approximateDisagreements;
+    }
+
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Nodes built: ").append(this.nodesBuilt).append(" (+").append(this.leavesBuilt).append(" leaves)\n");
+        builder.append("Significance tests: ").append(this.significanceTests).append(", pruned: ").append(this.prunedNodes).append('\n');
+        builder.append("Counting: ").append(this.countingNanos / 1000000).append("ms, partitioning: ")
+                .append(this.partitioningNanos / 1000000).append("ms, significance: ")
+                .append(this.significanceNanos / 1000000).append("ms\n");
+        builder.append("Evaluated: ").append(this.instancesEvaluated).append(" instances in ")
+                .append(this.evaluationNanos / 1000000).append("ms\n");
+        if (this.approximateSearches > 0) {
+            builder.append("Approximate splits: ").append(this.approximateSplits).append(" of ").append(this.approximateSearches)
+                    .append(" searches, ").append(this.rowsSampled).append(" rows sampled, disagreed ")
+                    .append(this.approximateDisagreements).append(" of ").append(this.approximateAudits).append(" audited\n");
+        }
+        builder.append("Depth  Nodes  Rows scanned\n");
+        for (int depth = 0; depth < this.nodesPerDepth.length; depth++) {
+            if (this.nodesPerDepth[depth] == 0 && this.rowsScannedPerLevel[depth] == 0) continue;
+            builder.append(String.format("%5d  %5d  %d%n", depth, this.nodesPerDepth[depth], this.rowsScannedPerLevel[depth]));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,156 @@
+package com.company;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces rows submitted by many concurrent requests into batches scored on one thread.
+ * A batch takes whatever is queued when the previous one finishes, waiting at most
+ * maxDelayNanos for more while it holds fewer than maxBatchRows rows. The scorer is read
+ * once per batch, so swapping it never splits a batch between two models.
+ */
+class MicroBatcher implements Runnable {
+
+    private static class Request {
+        private double[][] rows;
+        private CompletableFuture<double[]> predictions = new CompletableFuture<>();
+
+        private Request(double[][] rows) {
+            this.rows = rows;
+        }
+    }
+
+    private AtomicReference<TreeScorer> scorer;
+    private int maxBatchRows;
+    private long maxDelayNanos;
+    private BlockingQueue<Request> queue;
+    private volatile boolean stopped;
+
+    private LongAdder batches;
+    private LongAdder rows;
+
+    public MicroBatcher(AtomicReference<TreeScorer> scorer, int maxBatchRows, long maxDelayNanos) {
+        if (maxBatchRows < 1 || maxDelayNanos < 0) {
+            throw new IllegalArgumentException("Batches need at least 1 row and a delay of at least 0");
+        }
+        this.scorer = scorer;
+        this.maxBatchRows = maxBatchRows;
+        this.maxDelayNanos = maxDelayNanos;
+        this.queue = new LinkedBlockingQueue<>();
+        this.batches = new LongAdder();
+        this.rows = new LongAdder();
+    }
+
+    /**
+     * Queues rows laid out like the scorer's header. The future completes with one
+     * prediction per row, or exceptionally if the batcher stops first.
+     */
+    public CompletableFuture<double[]> submit(double[][] rows) {
+        Request request = new Request(rows);
+        this.queue.add(request);
+        if (this.stopped) {
+            // The batching thread may already have drained the queue for the last time
+            this.failQueued();
+        }
+        return request.predictions;
+    }
+
+    public void run() {
+        List<Request> batch = new ArrayList<>();
+        try {
+            while (!this.stopped) {
+                this.collect(batch);
+                this.score(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // stop() interrupts the thread while it waits for requests
+        }
+
+        for (Request request : batch) {
+            request.predictions.completeExceptionally(new IllegalStateException("Scoring stopped"));
+        }
+        this.failQueued();
+    }
+
+    /**
+     * Scores nothing more once the batch in progress, if any, finishes. The caller
+     * interrupts the batching thread to wake it.
+     */
+    public void stop() {
+        this.stopped = true;
+    }
+
+    private void collect(List<Request> batch) throws InterruptedException {
+        Request request = this.queue.take();
+        long deadline = System.nanoTime() + this.maxDelayNanos;
+        int numRows = 0;
+        while (true) {
+            batch.add(request);
+            numRows += request.rows.length;
+            if (numRows >= this.maxBatchRows) return;
+
+            request = this.queue.poll();
+            if (request == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return;
+                request = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (request == null) return;
+            }
+        }
+    }
+
+    private void score(List<Request> batch) {
+        int numRows = 0;
+        for (Request request : batch) {
+            numRows += request.rows.length;
+        }
+        double[][] rows = new double[numRows][];
+        int offset = 0;
+        for (Request request : batch) {
+            System.arraycopy(request.rows, 0, rows, offset, request.rows.length);
+            offset += request.rows.length;
+        }
+
+        double[] predictions = new double[numRows];
+        try {
+            this.scorer.get().score(rows, numRows, predictions);
+        } catch (RuntimeException e) {
+            for (Request request : batch) {
+                request.predictions.completeExceptionally(e);
+            }
+            return;
+        }
+
+        offset = 0;
+        for (Request request : batch) {
+            double[] result = new double[request.rows.length];
+            System.arraycopy(predictions, offset, result, 0, result.length);
+            offset += result.length;
+            request.predictions.complete(result);
+        }
+        this.batches.increment();
+        this.rows.add(numRows);
+    }
+
+    private void failQueued() {
+        Request request;
+        while ((request = this.queue.poll()) != null) {
+            request.predictions.completeExceptionally(new IllegalStateException("Scoring stopped"));
+        }
+    }
+
+    public long getBatches() {
+        return this.batches.sum();
+    }
+
+    public long getRows() {
+        return this.rows.sum();
+    }
+}
@@ -0,0 +1,157 @@
+package com.company;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary model format for compiled trees.
+ *
+ *   int magic, int version, int headerLength
+ *   header: relation name, attribute count, class index, then each attribute's
+ *           name, whether it is nominal, and its values
+ *   padding up to a multiple of 8
+ *   int numNodes, int numSlots
+ *   double nodeClass[numNodes], double childKeys[numSlots]
+ *   int nodeAttribute[numNodes], int childOffset[numNodes], int childCount[numNodes],
+ *   int fallbackChild[numNodes], int childNodes[numSlots]
+ *   byte nodeKind[numNodes]
+ *
+ * Everything is big endian. The arrays are laid out exactly like CompiledTree's, so a
+ * loaded model is scored straight out of the mapped file by MappedTree.
+ *
+ * Version 2 added threshold nodes for numeric splits. Version 1 files only ever hold
+ * kinds 0 and 1, so they still load.
+ */
+public class ModelFile {
+
+    public static final int MAGIC = 0x49443354;
+    public static final int VERSION = 2;
+
+    public static void save(CompiledTree tree, String path) throws IOException {
+
+        int[] nodeAttribute = tree.getNodeAttribute();
+        int numNodes = nodeAttribute.length;
+        int numSlots = tree.getChildNodes().length;
+        byte[] header = writeHeader(tree.getHeader());
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(header.length);
+            out.write(header);
+            while (out.size() % 8 != 0) {
+                out.writeByte(0);
+            }
+
+            out.writeInt(numNodes);
+            out.writeInt(numSlots);
+            for (double value : tree.getNodeClass()) out.writeDouble(value);
+            for (double value : tree.getChildKeys()) out.writeDouble(value);
+            for (int value : nodeAttribute) out.writeInt(value);
+            for (int value : tree.getChildOffset()) out.writeInt(value);
+            for (int value : tree.getChildCount()) out.writeInt(value);
+            for (int value : tree.getFallbackChild()) out.writeInt(value);
+            for (int value : tree.getChildNodes()) out.writeInt(value);
+            for (byte value : tree.getNodeKind()) out.writeByte(value);
+        }
+    }
+
+    /**
+     * Maps a saved model into memory. Nothing but the attribute dictionaries is copied onto the heap.
+     */
+    public static MappedTree load(String path) throws IOException {
+
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Model " + path + " is too large to map");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a model file");
+        }
+        int version = buffer.getInt(4);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported model version " + version + " in " + path);
+        }
+
+        int headerLength = buffer.getInt(8);
+        byte[] headerBytes = new byte[headerLength];
+        buffer.position(12);
+        buffer.get(headerBytes);
+        Instances header = readHeader(headerBytes);
+
+        int position = 12 + headerLength;
+        position += (8 - position % 8) % 8;
+        return new MappedTree(buffer, position, header);
+    }
+
+    public static boolean isModelFile(String path) {
+        Path file = Paths.get(path);
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            return Files.size(file) >= 4 && in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static byte[] writeHeader(Instances header) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(header.relationName());
+        out.writeInt(header.numAttributes());
+        out.writeInt(header.classIndex());
+        for (int j = 0; j < header.numAttributes(); j++) {
+            Attribute attr = header.attribute(j);
+            out.writeUTF(attr.name());
+            out.writeBoolean(attr.isNominal());
+            out.writeInt(attr.numValues());
+            for (int k = 0; k < attr.numValues(); k++) {
+                out.writeUTF(attr.value(k));
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Instances readHeader(byte[] headerBytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(headerBytes));
+        String relationName = in.readUTF();
+        int numAttributes = in.readInt();
+        int classIndex = in.readInt();
+
+        ArrayList<Attribute> attributes = new ArrayList<>(numAttributes);
+        for (int j = 0; j < numAttributes; j++) {
+            String name = in.readUTF();
+            boolean nominal = in.readBoolean();
+            int numValues = in.readInt();
+            List<String> values = new ArrayList<>(numValues);
+            for (int k = 0; k < numValues; k++) {
+                values.add(in.readUTF());
+            }
+            attributes.add(nominal ? new Attribute(name, values) : new Attribute(name));
+        }
+
+        Instances header = new Instances(relationName, attributes, 0);
+        header.setClassIndex(classIndex);
+        return header;
+    }
+}
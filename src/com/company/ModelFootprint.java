@@ -0,0 +1,97 @@
+package com.company;
+
+import weka.core.Instances;
+
+/**
+ * Estimated heap taken by a trained tree, as ID3TreeNode objects and once flattened into a
+ * CompiledTree, assuming a 64-bit JVM with compressed references. Shared objects such as
+ * the header's attributes are not counted.
+ */
+public class ModelFootprint {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    // Attribute and children references, confidence, class value, threshold and chi-squared, and three ints
+    private static final long NODE_BYTES = align(OBJECT_HEADER + 2 * REFERENCE + 4 * 8 + 3 * 4);
+
+    private final int numNodes;
+    private final int numLeaves;
+    private final long numChildSlots;
+    private final long treeBytes;
+    private final long compiledBytes;
+
+    private ModelFootprint(int numNodes, int numLeaves, long numChildSlots, long treeBytes, long compiledBytes) {
+        this.numNodes = numNodes;
+        this.numLeaves = numLeaves;
+        this.numChildSlots = numChildSlots;
+        this.treeBytes = treeBytes;
+        this.compiledBytes = compiledBytes;
+    }
+
+    public static ModelFootprint of(ID3TreeNode root, Instances header) {
+        int[] counts = new int[2];
+        long[] sizes = new long[2];
+        measure(root, counts, sizes);
+
+        CompiledTree compiled = new CompiledTree(root, header);
+        int n = compiled.numNodes();
+        long s = compiled.getChildNodes().length;
+        long compiledBytes = align(OBJECT_HEADER + 9 * REFERENCE)
+                + 4 * intArray(n) + align(ARRAY_HEADER + 8L * n) + align(ARRAY_HEADER + (long) n)
+                + intArray(s) + align(ARRAY_HEADER + 8L * s);
+        return new ModelFootprint(counts[0], counts[1], sizes[0], sizes[1], compiledBytes);
+    }
+
+    private static void measure(ID3TreeNode node, int[] counts, long[] sizes) {
+        counts[0]++;
+        sizes[1] += NODE_BYTES;
+        if (node.isLeaf()) {
+            counts[1]++;
+            return;
+        }
+
+        sizes[0] += node.numChildSlots();
+        sizes[1] += intArray(node.numChildSlots());
+        for (int code = 0; code < node.numChildSlots(); code++) {
+            if (node.getChild(code) != null) measure(node.getChild(code), counts, sizes);
+        }
+    }
+
+    // A reference array takes as much as an int array of the same length
+    private static long intArray(long length) {
+        return align(ARRAY_HEADER + 4 * length);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    public int getNumNodes() {
+        return this.numNodes;
+    }
+
+    public int getNumLeaves() {
+        return this.numLeaves;
+    }
+
+    public long getNumChildSlots() {
+        return this.numChildSlots;
+    }
+
+    public long getTreeBytes() {
+        return this.treeBytes;
+    }
+
+    public long getCompiledBytes() {
+        return this.compiledBytes;
+    }
+
+    public String toString() {
+        return String.format("%d nodes (%d leaves, %d child slots): ID3TreeNode tree %.1f KB (%.1f bytes/node), CompiledTree %.1f KB (%.1f bytes/node)",
+                this.numNodes, this.numLeaves, this.numChildSlots,
+                this.treeBytes / 1024.0, (double) this.treeBytes / this.numNodes,
+                this.compiledBytes / 1024.0, (double) this.compiledBytes / this.numNodes);
+    }
+}
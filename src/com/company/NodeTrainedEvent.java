@@ -0,0 +1,41 @@
+package com.company;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * One node going through split search during training.
+ */
+@Name("com.company.NodeTrained")
+@Label("Node Trained")
+@Category("ID3")
+@Description("Split search, partitioning and the significance test for a single node")
+class NodeTrainedEvent extends jdk.jfr.Event {
+
+    @Label("Depth")
+    int depth;
+
+    @Label("Rows")
+    int rows;
+
+    @Label("Split Attribute")
+    String attribute;
+
+    @Label("Counting Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long countingTime;
+
+    @Label("Partitioning Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long partitioningTime;
+
+    @Label("Significance Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long significanceTime;
+
+    @Label("Split")
+    boolean split;
+}
@@ -0,0 +1,164 @@
+package com.company;
+
+/**
+ * The best binary threshold split of a node on one numeric attribute. Rows with a value
+ * at or below the threshold go left (group 0), the rest go right (group 1). Rows missing
+ * the value go to whichever side has more rows with a value, and so do they at scoring
+ * time, so the class counts of each side include them.
+ */
+class NumericSplit {
+
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+
+    private int attributeIndex;
+    private int lastLeftCode;
+    private double threshold;
+    private double gain;
+    private boolean missingGoesLeft;
+    private int[] leftCounts;
+    private int[] rightCounts;
+
+    private NumericSplit() {
+    }
+
+    /**
+     * Finds the threshold with the highest gain in one sweep over the node's rows in value
+     * order, or returns null if the attribute has fewer than two distinct values there.
+     */
+    public static NumericSplit find(TrainingContext context, int attributeIndex, int from, int to,
+                                    int[] classCounts, int total, double tableEntropy) {
+        EncodedDataset data = context.getData();
+        int[] sorted = context.getSortedRows(attributeIndex);
+        int[] weights = context.getWeights();
+        int numClasses = classCounts.length;
+
+        // Missing values sit at the end of the range
+        int[] missingCounts = new int[numClasses];
+        int missingTotal = 0;
+        int end = to;
+        while (end > from && data.code(attributeIndex, sorted[end - 1]) == EncodedDataset.MISSING) {
+            int row = sorted[--end];
+            int weight = weights == null ? 1 : weights[row];
+            missingCounts[data.classCode(row)] += weight;
+            missingTotal += weight;
+        }
+        if (end - from < 2 || data.code(attributeIndex, sorted[from]) == data.code(attributeIndex, sorted[end - 1])) {
+            return null;
+        }
+
+        int knownTotal = total - missingTotal;
+        int[] left = new int[numClasses];
+        int leftTotal = 0;
+        int[] branch = new int[numClasses];
+
+        NumericSplit best = null;
+        for (int i = from; i < end - 1; i++) {
+            int row = sorted[i];
+            int weight = weights == null ? 1 : weights[row];
+            left[data.classCode(row)] += weight;
+            leftTotal += weight;
+
+            int code = data.code(attributeIndex, row);
+            int nextCode = data.code(attributeIndex, sorted[i + 1]);
+            if (code == nextCode) continue;
+
+            boolean missingGoesLeft = leftTotal >= knownTotal - leftTotal;
+            double gain = tableEntropy;
+            for (int side = LEFT; side <= RIGHT; side++) {
+                int sideTotal = 0;
+                for (int c = 0; c < numClasses; c++) {
+                    branch[c] = side == LEFT ? left[c] : classCounts[c] - missingCounts[c] - left[c];
+                    if (missingGoesLeft == (side == LEFT)) branch[c] += missingCounts[c];
+                    sideTotal += branch[c];
+                }
+
+                double entropy = 0.0;
+                for (int c = 0; c < numClasses; c++) {
+                    entropy += GainInfo.entropyTerm(branch[c], sideTotal);
+                }
+                gain -= ((double) sideTotal / (double) total) * entropy;
+            }
+
+            if (best == null || gain > best.gain) {
+                if (best == null) best = new NumericSplit();
+                best.gain = gain;
+                best.lastLeftCode = code;
+                best.threshold = (data.value(attributeIndex, code) + data.value(attributeIndex, nextCode)) / 2.0;
+                best.missingGoesLeft = missingGoesLeft;
+                best.leftCounts = left.clone();
+            }
+        }
+
+        best.attributeIndex = attributeIndex;
+        best.rightCounts = new int[numClasses];
+        for (int c = 0; c < numClasses; c++) {
+            best.rightCounts[c] = classCounts[c] - missingCounts[c] - best.leftCounts[c];
+            if (best.missingGoesLeft) {
+                best.leftCounts[c] += missingCounts[c];
+            } else {
+                best.rightCounts[c] += missingCounts[c];
+            }
+        }
+        return best;
+    }
+
+    public int getAttributeIndex() {
+        return this.attributeIndex;
+    }
+
+    public double getThreshold() {
+        return this.threshold;
+    }
+
+    public double getGain() {
+        return this.gain;
+    }
+
+    /**
+     * The side rows missing the value take, LEFT or RIGHT.
+     */
+    public int getMissingGroup() {
+        return this.missingGoesLeft ? LEFT : RIGHT;
+    }
+
+    /**
+     * LEFT or RIGHT for a value code of the attribute, MISSING included.
+     */
+    public int group(int code) {
+        if (code == EncodedDataset.MISSING) {
+            return this.getMissingGroup();
+        }
+        return code <= this.lastLeftCode ? LEFT : RIGHT;
+    }
+
+    /**
+     * Class counts of the rows on one side, counting the missing values sent there.
+     */
+    public int[] getClassCounts(int group) {
+        return group == LEFT ? this.leftCounts : this.rightCounts;
+    }
+
+    /**
+     * Chi squared statistic of the split, computed the same way as ContingencyTables.chiSquared.
+     */
+    public double chiSquared(int[] classCounts, int total) {
+        double subChiSquared = 0.0;
+        for (int group = LEFT; group <= RIGHT; group++) {
+            int[] counts = this.getClassCounts(group);
+            int actualAttrValueCount = 0;
+            for (int count : counts) {
+                actualAttrValueCount += count;
+            }
+            if (actualAttrValueCount == 0) continue;
+
+            for (int c = 0; c < counts.length; c++) {
+                if (counts[c] > 0 && classCounts[c] > 0) {
+                    double expectedAttrValueCountForClassValue = (double) actualAttrValueCount * ((double) classCounts[c] / (double) total);
+                    subChiSquared += (Math.pow(counts[c] - expectedAttrValueCountForClassValue, 2)/expectedAttrValueCountForClassValue);
+                }
+            }
+        }
+        return subChiSquared;
+    }
+}
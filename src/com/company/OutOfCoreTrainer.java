@@ -0,0 +1,224 @@
+package com.company;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Trains an ID3 tree without ever holding the training set in memory. The tree is grown
+ * breadth first: every pass streams the file once, sends each row down the tree built so
+ * far to the frontier node it lands in, and adds it to that node's contingency tables.
+ * Once the pass is done every frontier node is split or closed off exactly as
+ * ID3TreeNode.train would, and its children become the next frontier.
+ *
+ * Memory use is bounded by the tables of the frontier. When a level is wider than
+ * maxFrontierNodes it is handled in several passes. Only nominal attributes are used
+ * for splitting, since numeric values have no dictionary until the whole file is read.
+ */
+public class OutOfCoreTrainer {
+
+    public static final int DEFAULT_MAX_FRONTIER_NODES = 4096;
+
+    private String path;
+    private Integer confidenceLevel;
+    private int maxFrontierNodes;
+    private int numPasses;
+
+    public OutOfCoreTrainer(String path, Integer confidenceLevel) {
+        this(path, confidenceLevel, DEFAULT_MAX_FRONTIER_NODES);
+    }
+
+    public OutOfCoreTrainer(String path, Integer confidenceLevel, int maxFrontierNodes) {
+        if (maxFrontierNodes < 1) {
+            throw new IllegalArgumentException("Max frontier nodes must be at least 1, got " + maxFrontierNodes);
+        }
+        this.path = path;
+        this.confidenceLevel = confidenceLevel;
+        this.maxFrontierNodes = maxFrontierNodes;
+    }
+
+    public ID3TreeNode train() throws Exception {
+
+        Instances structure = this.openSource().getStructure();
+        if (structure.classIndex() == -1)
+            structure.setClassIndex(structure.numAttributes() - 1);
+
+        int numAttributes = structure.numAttributes();
+        int[] numValues = new int[numAttributes];
+        boolean[] usedAttributes = new boolean[numAttributes];
+        for (int j = 0; j < numAttributes; j++) {
+            Attribute attr = structure.attribute(j);
+            numValues[j] = attr.numValues();
+            usedAttributes[j] = !attr.isNominal();
+        }
+
+        PendingNode root = new PendingNode(new ID3TreeNode(this.confidenceLevel), usedAttributes);
+        List<PendingNode> frontier = new ArrayList<>();
+        frontier.add(root);
+        this.numPasses = 0;
+
+        while (!frontier.isEmpty()) {
+            List<PendingNode> nextFrontier = new ArrayList<>();
+            for (int start = 0; start < frontier.size(); start += this.maxFrontierNodes) {
+                List<PendingNode> batch = frontier.subList(start, Math.min(start + this.maxFrontierNodes, frontier.size()));
+                for (PendingNode pending : batch) {
+                    pending.tables = new ContingencyTables(numValues, structure.classIndex(), pending.usedAttributes);
+                }
+
+                this.scan(root);
+
+                for (PendingNode pending : batch) {
+                    pending.tables.finish();
+                    this.split(pending, structure, nextFrontier);
+                    pending.tables = null;
+                    pending.usedAttributes = null;
+                }
+            }
+            frontier = nextFrontier;
+        }
+
+        return root.node;
+    }
+
+    /**
+     * Number of passes over the file the last call to train made.
+     */
+    public int getNumPasses() {
+        return this.numPasses;
+    }
+
+    private ConverterUtils.DataSource openSource() throws Exception {
+        return new ConverterUtils.DataSource(this.path);
+    }
+
+    private void scan(PendingNode root) throws Exception {
+        ConverterUtils.DataSource source = this.openSource();
+        Instances structure = source.getStructure();
+        if (structure.classIndex() == -1)
+            structure.setClassIndex(structure.numAttributes() - 1);
+
+        while (source.hasMoreElements(structure)) {
+            Instance instance = source.nextElement(structure);
+            if (instance.classIsMissing()) continue;
+
+            // Route the row the same way training partitions it, imputing missing values by class
+            int classCode = (int) instance.classValue();
+            PendingNode pending = root;
+            while (pending != null && pending.attributeIndex != -1) {
+                int attributeIndex = pending.attributeIndex;
+                int code = instance.isMissing(attributeIndex) ? pending.imputedCodes[classCode] : (int) instance.value(attributeIndex);
+                pending = pending.children[code];
+            }
+
+            if (pending != null && pending.tables != null) {
+                pending.tables.add(instance);
+            }
+        }
+        this.numPasses++;
+    }
+
+    private void split(PendingNode pending, Instances structure, List<PendingNode> nextFrontier) {
+        ContingencyTables tables = pending.tables;
+        ID3TreeNode node = pending.node;
+        if (tables.getTotal() == 0) {
+            return;
+        }
+
+        int attributeIndex = tables.findBestAttribute();
+        double chiSquared = attributeIndex == -1 ? Double.NaN : tables.chiSquared(attributeIndex);
+        if (attributeIndex == -1 || !this.isSignificant(chiSquared, structure.attribute(attributeIndex))) {
+            node.setLeafClassValue(mostCommonClassValue(tables.getClassCounts()));
+            return;
+        }
+
+        Attribute root = structure.attribute(attributeIndex);
+        int numCodes = root.numValues();
+        int numClasses = tables.getClassCounts().length;
+        node.setAttribute(root);
+        node.setSplitStatistic(chiSquared, numCodes);
+        node.setMajorityClassValue(mostCommonClassValue(tables.getClassCounts()));
+        node.setFallbackAttrValue((double) tables.backupCode(attributeIndex));
+
+        pending.attributeIndex = attributeIndex;
+        pending.imputedCodes = new int[numClasses];
+        for (int c = 0; c < numClasses; c++) {
+            pending.imputedCodes[c] = tables.imputedCode(attributeIndex, c);
+        }
+        pending.children = new PendingNode[numCodes];
+
+        for (int code = 0; code < numCodes; code++) {
+            int size = 0;
+            int classesSeen = 0;
+            int onlyClassCode = -1;
+            for (int c = 0; c < numClasses; c++) {
+                int count = tables.count(attributeIndex, code, c);
+                if (count > 0) {
+                    size += count;
+                    classesSeen++;
+                    onlyClassCode = c;
+                }
+            }
+            if (size == 0) continue;
+
+            Double attrValue = (double) code;
+            if (classesSeen > 1) {
+                boolean[] childUsedAttributes = pending.usedAttributes.clone();
+                childUsedAttributes[attributeIndex] = true;
+
+                ID3TreeNode childNode = new ID3TreeNode(this.confidenceLevel);
+                node.setChildForAttributeValue(attrValue, childNode);
+                PendingNode child = new PendingNode(childNode, childUsedAttributes);
+                pending.children[code] = child;
+                nextFrontier.add(child);
+            } else {
+                ID3TreeNode leafNode = new ID3TreeNode(this.confidenceLevel);
+                leafNode.setLeafClassValue((double) onlyClassCode);
+                node.setChildForAttributeValue(attrValue, leafNode);
+            }
+        }
+    }
+
+    private boolean isSignificant(double chiSquared, Attribute attribute) {
+        if (this.confidenceLevel == CriticalValuesTable.NO_PRUNING) {
+            return true;
+        }
+
+        return chiSquared > CriticalValuesTable.criticalValue(attribute.numValues(), this.confidenceLevel);
+    }
+
+    private static Double mostCommonClassValue(int[] classCounts) {
+        int highestCount = 0;
+        Double highestClassValue = null;
+        for (int classCode = 0; classCode < classCounts.length; classCode++) {
+            if (classCounts[classCode] > highestCount) {
+                highestCount = classCounts[classCode];
+                highestClassValue = (double) classCode;
+            }
+        }
+        return highestClassValue;
+    }
+
+    /**
+     * A node of the tree being grown plus what is needed to route rows through it.
+     * Tables only exist while the node is on the frontier being counted.
+     */
+    private static class PendingNode {
+
+        private ID3TreeNode node;
+        private boolean[] usedAttributes;
+        private ContingencyTables tables;
+        private int attributeIndex;
+        private int[] imputedCodes;
+        private PendingNode[] children;
+
+        PendingNode(ID3TreeNode node, boolean[] usedAttributes) {
+            this.node = node;
+            this.usedAttributes = usedAttributes;
+            this.attributeIndex = -1;
+        }
+    }
+}
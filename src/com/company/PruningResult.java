@@ -0,0 +1,55 @@
+package com.company;
+
+/**
+ * What reduced-error pruning did to a tree and its accuracy on the validation rows.
+ */
+public class PruningResult {
+
+    private final int nodesBefore;
+    private final int nodesAfter;
+    private final int numPruned;
+    private final int numRows;
+    private final int correctBefore;
+    private final int correctAfter;
+
+    PruningResult(int nodesBefore, int nodesAfter, int numPruned, int numRows, int correctBefore, int correctAfter) {
+        this.nodesBefore = nodesBefore;
+        this.nodesAfter = nodesAfter;
+        this.numPruned = numPruned;
+        this.numRows = numRows;
+        this.correctBefore = correctBefore;
+        this.correctAfter = correctAfter;
+    }
+
+    public int getNodesBefore() {
+        return this.nodesBefore;
+    }
+
+    public int getNodesAfter() {
+        return this.nodesAfter;
+    }
+
+    public int getNodesRemoved() {
+        return this.nodesBefore - this.nodesAfter;
+    }
+
+    /**
+     * Subtrees replaced by a leaf, not counting those inside a larger subtree pruned later.
+     */
+    public int getNumPruned() {
+        return this.numPruned;
+    }
+
+    public double getAccuracyBefore() {
+        return this.numRows == 0 ? 0.0 : (double) this.correctBefore / this.numRows;
+    }
+
+    public double getAccuracyAfter() {
+        return this.numRows == 0 ? 0.0 : (double) this.correctAfter / this.numRows;
+    }
+
+    public String toString() {
+        return String.format("Pruned %d subtrees, removing %d of %d nodes. Accuracy on %d validation rows %.4f before, %.4f after",
+                this.numPruned, this.getNodesRemoved(), this.nodesBefore, this.numRows, this.getAccuracyBefore(), this.getAccuracyAfter());
+    }
+}
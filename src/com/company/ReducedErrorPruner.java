@@ -0,0 +1,173 @@
+package com.company;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Reduced-error post-pruning against a validation set. The validation rows are routed
+ * through the tree once, the way evaluateInstance routes them, counting the classes that
+ * reach every node. A single bottom-up pass then replaces each subtree with a leaf
+ * predicting the node's training majority whenever that leaf gets no more validation
+ * rows wrong than the subtree does, so no candidate prune ever rescores the data.
+ */
+public class ReducedErrorPruner {
+
+    private ID3TreeNode root;
+    private List<ID3TreeNode> nodes;
+    private Map<ID3TreeNode, Integer> ids;
+
+    public ReducedErrorPruner(ID3TreeNode root) {
+        this.root = root;
+    }
+
+    /**
+     * Prunes the tree in place. Rows of validation without a class value are skipped.
+     */
+    public PruningResult prune(Instances validation) {
+        if (validation.classIndex() == -1) {
+            throw new IllegalArgumentException("Validation data has no class attribute");
+        }
+
+        // Preorder numbering puts every node after its parent, so walking the ids
+        // backwards visits children before parents
+        this.nodes = new ArrayList<>();
+        this.ids = new IdentityHashMap<>();
+        this.collect(this.root);
+        int numNodes = this.nodes.size();
+        int numClasses = validation.numClasses();
+
+        int[][] classCounts = new int[numNodes][numClasses];
+        int numRows = this.route(validation, classCounts);
+
+        int[] reached = new int[numNodes];
+        for (int n = 0; n < numNodes; n++) {
+            for (int count : classCounts[n]) {
+                reached[n] += count;
+            }
+        }
+
+        int[] errorsBefore = new int[numNodes];
+        int[] errors = new int[numNodes];
+        int[] sizes = new int[numNodes];
+        int[] prunes = new int[numNodes];
+        int nodesRemoved = 0;
+        for (int n = numNodes - 1; n >= 0; n--) {
+            ID3TreeNode node = this.nodes.get(n);
+            if (node.isLeaf()) {
+                Double leafClass = node.getLeafClassValue();
+                errorsBefore[n] = leafErrors(classCounts[n], reached[n], leafClass);
+                errors[n] = errorsBefore[n];
+                sizes[n] = 1;
+                continue;
+            }
+
+            // Rows the node had nowhere to send count against the subtree
+            int routedOn = 0;
+            sizes[n] = 1;
+            for (int child : this.children(node)) {
+                errorsBefore[n] += errorsBefore[child];
+                errors[n] += errors[child];
+                routedOn += reached[child];
+                sizes[n] += sizes[child];
+                prunes[n] += prunes[child];
+            }
+            errorsBefore[n] += reached[n] - routedOn;
+            errors[n] += reached[n] - routedOn;
+
+            Double majority = node.getMajorityClassValue() != null ? node.getMajorityClassValue() : mostCommonClassValue(classCounts[n]);
+            int errorsAsLeaf = leafErrors(classCounts[n], reached[n], majority);
+            if (errorsAsLeaf <= errors[n]) {
+                node.setLeafClassValue(majority);
+                errors[n] = errorsAsLeaf;
+                nodesRemoved += sizes[n] - 1;
+                sizes[n] = 1;
+                prunes[n] = 1;
+            }
+        }
+
+        return new PruningResult(numNodes, numNodes - nodesRemoved, prunes[0], numRows,
+                numRows - errorsBefore[0], numRows - errors[0]);
+    }
+
+    private void collect(ID3TreeNode node) {
+        this.ids.put(node, this.nodes.size());
+        this.nodes.add(node);
+        for (int code = 0; code < node.numChildSlots(); code++) {
+            if (node.getChild(code) != null) this.collect(node.getChild(code));
+        }
+    }
+
+    private TreeSet<Integer> children(ID3TreeNode node) {
+        TreeSet<Integer> children = new TreeSet<>();
+        for (int code = 0; code < node.numChildSlots(); code++) {
+            if (node.getChild(code) != null) children.add(this.ids.get(node.getChild(code)));
+        }
+        return children;
+    }
+
+    // Counts each row's class at every node on its path, returning the number of rows routed
+    private int route(Instances validation, int[][] classCounts) {
+        int[] attributeIndex = new int[this.nodes.size()];
+        for (int n = 0; n < attributeIndex.length; n++) {
+            ID3TreeNode node = this.nodes.get(n);
+            if (node.isLeaf()) continue;
+
+            Attribute attr = validation.attribute(node.getAttribute().name());
+            if (attr == null) {
+                throw new IllegalArgumentException("Validation data has no attribute named " + node.getAttribute().name());
+            }
+            attributeIndex[n] = attr.index();
+        }
+
+        int numRows = 0;
+        for (int i = 0; i < validation.size(); i++) {
+            Instance instance = validation.get(i);
+            if (instance.classIsMissing()) continue;
+
+            int classCode = (int) instance.classValue();
+            numRows++;
+            ID3TreeNode node = this.root;
+            while (node != null) {
+                int n = this.ids.get(node);
+                classCounts[n][classCode]++;
+                if (node.isLeaf()) break;
+
+                double value = instance.value(attributeIndex[n]);
+                ID3TreeNode child = null;
+                if (!Double.isNaN(value)) {
+                    if (node.getThreshold() != null) {
+                        child = node.getChild(value <= node.getThreshold() ? NumericSplit.LEFT : NumericSplit.RIGHT);
+                    } else if (value == (int) value) {
+                        child = node.getChild((int) value);
+                    }
+                }
+                Double fallbackValue = node.getFallbackAttrValue();
+                node = child != null || fallbackValue == null ? child : node.getChild(fallbackValue.intValue());
+            }
+        }
+        return numRows;
+    }
+
+    private static int leafErrors(int[] classCounts, int reached, Double classValue) {
+        return classValue == null || classValue.isNaN() ? reached : reached - classCounts[classValue.intValue()];
+    }
+
+    private static Double mostCommonClassValue(int[] classCounts) {
+        int highestCount = 0;
+        Double highestClassValue = null;
+        for (int classCode = 0; classCode < classCounts.length; classCode++) {
+            if (classCounts[classCode] > highestCount) {
+                highestCount = classCounts[classCode];
+                highestClassValue = (double) classCode;
+            }
+        }
+        return highestClassValue;
+    }
+}
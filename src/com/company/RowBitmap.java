@@ -0,0 +1,331 @@
+package com.company;
+
+import java.util.Arrays;
+
+/**
+ * Immutable compressed set of row indices, laid out like a roaring bitmap. Rows are
+ * grouped into chunks of 65536 by their high 16 bits, and each chunk is stored either
+ * as a sorted char array of its low bits, when it holds at most ARRAY_MAX rows, or as a
+ * 1024 word bitset. Intersections pick the cheapest loop for each pair of containers,
+ * so sparse sets cost their size and dense ones a word at a time.
+ */
+final class RowBitmap {
+
+    public static final int ARRAY_MAX = 4096;
+
+    private static final int BITSET_WORDS = 1024;
+
+    static final RowBitmap EMPTY = new RowBitmap(new char[0], new Object[0], new int[0], 0);
+
+    private final char[] keys;
+    private final Object[] containers;
+    private final int[] cardinalities;
+    private final int size;
+    private final int cardinality;
+
+    private RowBitmap(char[] keys, Object[] containers, int[] cardinalities, int size) {
+        this.keys = keys;
+        this.containers = containers;
+        this.cardinalities = cardinalities;
+        this.size = size;
+        int cardinality = 0;
+        for (int i = 0; i < size; i++) {
+            cardinality += cardinalities[i];
+        }
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * The set of rows[from, to), which do not need to be in order.
+     */
+    public static RowBitmap of(int[] rows, int from, int to) {
+        int[] sorted = Arrays.copyOfRange(rows, from, to);
+        Arrays.sort(sorted);
+        return ofSorted(sorted, 0, sorted.length);
+    }
+
+    /**
+     * The set of rows[from, to), which must be ascending with no repeats.
+     */
+    public static RowBitmap ofSorted(int[] rows, int from, int to) {
+        int numChunks = 0;
+        for (int i = from; i < to; i++) {
+            if (i == from || (rows[i] >>> 16) != (rows[i - 1] >>> 16)) numChunks++;
+        }
+
+        char[] keys = new char[numChunks];
+        Object[] containers = new Object[numChunks];
+        int[] cardinalities = new int[numChunks];
+        int chunk = 0;
+        int start = from;
+        while (start < to) {
+            int key = rows[start] >>> 16;
+            int end = start;
+            while (end < to && (rows[end] >>> 16) == key) end++;
+
+            int count = end - start;
+            if (count <= ARRAY_MAX) {
+                char[] values = new char[count];
+                for (int i = start; i < end; i++) {
+                    values[i - start] = (char) rows[i];
+                }
+                containers[chunk] = values;
+            } else {
+                long[] words = new long[BITSET_WORDS];
+                for (int i = start; i < end; i++) {
+                    int low = rows[i] & 0xFFFF;
+                    words[low >>> 6] |= 1L << low;
+                }
+                containers[chunk] = words;
+            }
+            keys[chunk] = (char) key;
+            cardinalities[chunk] = count;
+            chunk++;
+            start = end;
+        }
+        return new RowBitmap(keys, containers, cardinalities, numChunks);
+    }
+
+    public int cardinality() {
+        return this.cardinality;
+    }
+
+    /**
+     * Number of 65536 row chunks the set touches.
+     */
+    public int numChunks() {
+        return this.size;
+    }
+
+    /**
+     * Rough cost of intersecting a dense set with this one: a bitset chunk costs its words
+     * and an array chunk one probe per entry.
+     */
+    public long intersectionCost() {
+        long cost = 0;
+        for (int i = 0; i < this.size; i++) {
+            cost += this.containers[i] instanceof long[] ? BITSET_WORDS : this.cardinalities[i];
+        }
+        return cost;
+    }
+
+    /**
+     * Size of the intersection, without building it.
+     */
+    public int andCardinality(RowBitmap other) {
+        int count = 0;
+        int i = 0;
+        int k = 0;
+        while (i < this.size && k < other.size) {
+            char key = this.keys[i];
+            char otherKey = other.keys[k];
+            if (key < otherKey) {
+                i++;
+            } else if (key > otherKey) {
+                k++;
+            } else {
+                count += andCardinality(this.containers[i], other.containers[k]);
+                i++;
+                k++;
+            }
+        }
+        return count;
+    }
+
+    public RowBitmap and(RowBitmap other) {
+        int capacity = Math.min(this.size, other.size);
+        char[] keys = new char[capacity];
+        Object[] containers = new Object[capacity];
+        int[] cardinalities = new int[capacity];
+        int n = 0;
+
+        int i = 0;
+        int k = 0;
+        while (i < this.size && k < other.size) {
+            char key = this.keys[i];
+            char otherKey = other.keys[k];
+            if (key < otherKey) {
+                i++;
+            } else if (key > otherKey) {
+                k++;
+            } else {
+                Object container = and(this.containers[i], other.containers[k]);
+                int cardinality = cardinalityOf(container);
+                if (cardinality > 0) {
+                    keys[n] = key;
+                    containers[n] = container;
+                    cardinalities[n] = cardinality;
+                    n++;
+                }
+                i++;
+                k++;
+            }
+        }
+        return new RowBitmap(keys, containers, cardinalities, n);
+    }
+
+    public RowBitmap or(RowBitmap other) {
+        int capacity = this.size + other.size;
+        char[] keys = new char[capacity];
+        Object[] containers = new Object[capacity];
+        int[] cardinalities = new int[capacity];
+        int n = 0;
+
+        int i = 0;
+        int k = 0;
+        while (i < this.size || k < other.size) {
+            if (k == other.size || (i < this.size && this.keys[i] < other.keys[k])) {
+                keys[n] = this.keys[i];
+                containers[n] = this.containers[i];
+                cardinalities[n] = this.cardinalities[i];
+                i++;
+            } else if (i == this.size || this.keys[i] > other.keys[k]) {
+                keys[n] = other.keys[k];
+                containers[n] = other.containers[k];
+                cardinalities[n] = other.cardinalities[k];
+                k++;
+            } else {
+                keys[n] = this.keys[i];
+                containers[n] = or(this.containers[i], other.containers[k]);
+                cardinalities[n] = cardinalityOf(containers[n]);
+                i++;
+                k++;
+            }
+            n++;
+        }
+        return new RowBitmap(keys, containers, cardinalities, n);
+    }
+
+    private static int andCardinality(Object a, Object b) {
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] x = (long[]) a;
+            long[] y = (long[]) b;
+            int count = 0;
+            for (int w = 0; w < BITSET_WORDS; w++) {
+                count += Long.bitCount(x[w] & y[w]);
+            }
+            return count;
+        }
+        if (a instanceof long[]) {
+            return countPresent((char[]) b, (long[]) a);
+        }
+        if (b instanceof long[]) {
+            return countPresent((char[]) a, (long[]) b);
+        }
+
+        char[] x = (char[]) a;
+        char[] y = (char[]) b;
+        int count = 0;
+        int i = 0;
+        int k = 0;
+        while (i < x.length && k < y.length) {
+            if (x[i] < y[k]) {
+                i++;
+            } else if (x[i] > y[k]) {
+                k++;
+            } else {
+                count++;
+                i++;
+                k++;
+            }
+        }
+        return count;
+    }
+
+    private static int countPresent(char[] values, long[] words) {
+        int count = 0;
+        for (char value : values) {
+            if ((words[value >>> 6] & (1L << value)) != 0) count++;
+        }
+        return count;
+    }
+
+    private static Object and(Object a, Object b) {
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] x = (long[]) a;
+            long[] y = (long[]) b;
+            long[] words = new long[BITSET_WORDS];
+            int count = 0;
+            for (int w = 0; w < BITSET_WORDS; w++) {
+                words[w] = x[w] & y[w];
+                count += Long.bitCount(words[w]);
+            }
+            return count <= ARRAY_MAX ? toArray(words, count) : words;
+        }
+        if (a instanceof long[] || b instanceof long[]) {
+            char[] values = (char[]) (a instanceof long[] ? b : a);
+            long[] words = (long[]) (a instanceof long[] ? a : b);
+            char[] result = new char[values.length];
+            int n = 0;
+            for (char value : values) {
+                if ((words[value >>> 6] & (1L << value)) != 0) result[n++] = value;
+            }
+            return Arrays.copyOf(result, n);
+        }
+
+        char[] x = (char[]) a;
+        char[] y = (char[]) b;
+        char[] result = new char[Math.min(x.length, y.length)];
+        int n = 0;
+        int i = 0;
+        int k = 0;
+        while (i < x.length && k < y.length) {
+            if (x[i] < y[k]) {
+                i++;
+            } else if (x[i] > y[k]) {
+                k++;
+            } else {
+                result[n++] = x[i];
+                i++;
+                k++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static Object or(Object a, Object b) {
+        long[] words = new long[BITSET_WORDS];
+        for (Object container : new Object[]{a, b}) {
+            if (container instanceof long[]) {
+                long[] x = (long[]) container;
+                for (int w = 0; w < BITSET_WORDS; w++) {
+                    words[w] |= x[w];
+                }
+            } else {
+                for (char value : (char[]) container) {
+                    words[value >>> 6] |= 1L << value;
+                }
+            }
+        }
+
+        int count = 0;
+        for (long word : words) {
+            count += Long.bitCount(word);
+        }
+        return count <= ARRAY_MAX ? toArray(words, count) : words;
+    }
+
+    private static char[] toArray(long[] words, int count) {
+        char[] values = new char[count];
+        int n = 0;
+        for (int w = 0; w < BITSET_WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                values[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return values;
+    }
+
+    private static int cardinalityOf(Object container) {
+        if (container instanceof char[]) {
+            return ((char[]) container).length;
+        }
+        int count = 0;
+        for (long word : (long[]) container) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+}
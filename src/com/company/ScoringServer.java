@@ -0,0 +1,346 @@
+package com.company;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import weka.core.Attribute;
+import weka.core.Instances;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves predictions over HTTP on the loopback interface.
+ *
+ * POST /score takes one row per line, with values comma separated in header order and the
+ * class column optional, and answers with one predicted class label per line. GET /stats
+ * reports request counts, batch sizes and latency percentiles. Exchanges run on virtual
+ * threads when the JVM has them, and rows from concurrent requests are scored together by
+ * a MicroBatcher.
+ *
+ * POST /model takes the name of a saved model in the model directory and swaps it in. It
+ * only exists when a model directory was given, and only loads files inside it. Since any
+ * web page can post to loopback, the request must also carry a content type that a
+ * browser will not send cross origin without asking first, such as
+ * application/octet-stream, rather than text/plain, a form type or none at all.
+ */
+public class ScoringServer {
+
+    public static final int DEFAULT_PORT = 8130;
+
+    public static final int DEFAULT_MAX_BATCH_ROWS = 1024;
+
+    public static final long DEFAULT_MAX_BATCH_DELAY_MICROS = 50;
+
+    private AtomicReference<TreeScorer> scorer;
+    private int port;
+    private Path modelDirectory;
+    private MicroBatcher batcher;
+    private HttpServer server;
+    private ExecutorService executor;
+    private Thread batchingThread;
+
+    private LatencyHistogram latencies;
+    private LongAdder requests;
+    private LongAdder failedRequests;
+    private LongAdder modelSwaps;
+
+    public ScoringServer(TreeScorer scorer, int port) {
+        this(scorer, port, null);
+    }
+
+    /**
+     * Serves scorer, letting /model swap in models saved in modelDirectory, or not at all
+     * when it is null.
+     */
+    public ScoringServer(TreeScorer scorer, int port, String modelDirectory) {
+        this(scorer, port, modelDirectory, DEFAULT_MAX_BATCH_ROWS, DEFAULT_MAX_BATCH_DELAY_MICROS);
+    }
+
+    public ScoringServer(TreeScorer scorer, int port, int maxBatchRows, long maxBatchDelayMicros) {
+        this(scorer, port, null, maxBatchRows, maxBatchDelayMicros);
+    }
+
+    public ScoringServer(TreeScorer scorer, int port, String modelDirectory, int maxBatchRows, long maxBatchDelayMicros) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Port must be between 0 and 65535");
+        }
+        this.scorer = new AtomicReference<>(scorer);
+        this.port = port;
+        if (modelDirectory != null) {
+            // Resolved once, so links swapped in later cannot move where models come from
+            try {
+                this.modelDirectory = Paths.get(modelDirectory).toRealPath();
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Model directory " + modelDirectory + " does not exist", e);
+            }
+            if (!Files.isDirectory(this.modelDirectory)) {
+                throw new IllegalArgumentException(modelDirectory + " is not a directory");
+            }
+        }
+        this.batcher = new MicroBatcher(this.scorer, maxBatchRows, TimeUnit.MICROSECONDS.toNanos(maxBatchDelayMicros));
+        this.latencies = new LatencyHistogram();
+        this.requests = new LongAdder();
+        this.failedRequests = new LongAdder();
+        this.modelSwaps = new LongAdder();
+    }
+
+    public void start() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port), 0);
+        this.server.createContext("/score", this::handleScore);
+        this.server.createContext("/stats", this::handleStats);
+        if (this.modelDirectory != null) {
+            this.server.createContext("/model", this::handleModel);
+        }
+        this.executor = newExchangeExecutor();
+        this.server.setExecutor(this.executor);
+
+        this.batchingThread = new Thread(this.batcher, "scoring-batcher");
+        this.batchingThread.setDaemon(true);
+        this.batchingThread.start();
+        this.server.start();
+    }
+
+    /**
+     * Stops accepting requests, gives those in flight up to delaySeconds to finish, then
+     * fails whatever is still waiting to be scored.
+     */
+    public void stop(int delaySeconds) {
+        this.server.stop(delaySeconds);
+        this.batcher.stop();
+        this.batchingThread.interrupt();
+        this.executor.shutdown();
+    }
+
+    // Virtual threads arrived in Java 21. Looking the factory up keeps the server running on older JVMs
+    private static ExecutorService newExchangeExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * The port the server listens on, which is chosen by the system when 0 was asked for.
+     */
+    public int getPort() {
+        return this.server != null ? this.server.getAddress().getPort() : this.port;
+    }
+
+    /**
+     * Replaces the model without dropping requests. Batches already being scored finish on
+     * the old one. The new model must expect the same header, since queued rows were
+     * parsed against it.
+     */
+    public void swapScorer(TreeScorer scorer) {
+        BatchScorer.checkHeader(this.scorer.get().getHeader(), scorer.getHeader());
+        this.scorer.set(scorer);
+        this.modelSwaps.increment();
+    }
+
+    /**
+     * Time in nanoseconds from receiving a /score request to having its predictions, that
+     * percentile percent of requests took at most.
+     */
+    public long latencyPercentile(double percent) {
+        return this.latencies.percentile(percent);
+    }
+
+    public String getStats() {
+        long batches = this.batcher.getBatches();
+        long rows = this.batcher.getRows();
+        return "Requests: " + this.requests.sum() + " (" + this.failedRequests.sum() + " failed), "
+                + rows + " rows in " + batches + " batches ("
+                + String.format("%.1f", batches == 0 ? 0.0 : (double) rows / batches) + " rows/batch)\n"
+                + "Latency (us): p50 " + micros(this.latencies.percentile(50.0))
+                + ", p90 " + micros(this.latencies.percentile(90.0))
+                + ", p99 " + micros(this.latencies.percentile(99.0))
+                + ", p99.9 " + micros(this.latencies.percentile(99.9))
+                + ", max " + micros(this.latencies.max()) + "\n"
+                + "Model swaps: " + this.modelSwaps.sum() + "\n";
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1f", nanos / 1000.0);
+    }
+
+    private void handleScore(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        this.requests.increment();
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                this.failedRequests.increment();
+                respond(exchange, 405, "Use POST\n");
+                return;
+            }
+
+            Instances header = this.scorer.get().getHeader();
+            double[][] rows;
+            try {
+                rows = parseRows(exchange, header);
+            } catch (IllegalArgumentException e) {
+                this.failedRequests.increment();
+                respond(exchange, 400, e.getMessage() + "\n");
+                return;
+            }
+
+            double[] predictions;
+            try {
+                predictions = this.batcher.submit(rows).get();
+            } catch (InterruptedException | ExecutionException e) {
+                this.failedRequests.increment();
+                respond(exchange, 503, "Scoring failed\n");
+                return;
+            }
+            this.latencies.record(System.nanoTime() - start);
+
+            Attribute classAttribute = header.classAttribute();
+            StringBuilder body = new StringBuilder(predictions.length * 8);
+            for (double prediction : predictions) {
+                body.append(Double.isNaN(prediction) ? "?" : classAttribute.value((int) prediction)).append('\n');
+            }
+            respond(exchange, 200, body.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleStats(HttpExchange exchange) throws IOException {
+        try {
+            respond(exchange, 200, this.getStats());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleModel(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Use POST\n");
+                return;
+            }
+
+            if (isSimpleContentType(exchange.getRequestHeaders().getFirst("Content-Type"))) {
+                respond(exchange, 415, "Send the model name as application/octet-stream\n");
+                return;
+            }
+
+            String name = readBody(exchange).trim();
+            try {
+                Path path = this.modelDirectory.resolve(name).toRealPath();
+                if (!path.startsWith(this.modelDirectory) || !Files.isRegularFile(path)) {
+                    respond(exchange, 403, name + " is not a model in the model directory\n");
+                    return;
+                }
+                MappedTree model = ModelFile.load(path.toString());
+                this.swapScorer(model);
+                respond(exchange, 200, "Loaded " + model.numNodes() + " nodes from " + name + "\n");
+            } catch (IOException | IllegalArgumentException e) {
+                respond(exchange, 400, "Could not load " + name + ": " + e.getMessage() + "\n");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // The content types a page can post cross origin without a preflight, counting no type at all
+    private static boolean isSimpleContentType(String contentType) {
+        if (contentType == null) return true;
+
+        int end = contentType.indexOf(';');
+        String mediaType = (end == -1 ? contentType : contentType.substring(0, end)).trim().toLowerCase(Locale.ROOT);
+        return mediaType.isEmpty()
+                || mediaType.equals("text/plain")
+                || mediaType.equals("application/x-www-form-urlencoded")
+                || mediaType.equals("multipart/form-data");
+    }
+
+    // One row per line, comma separated, in header order. The class column may be left out
+    private static double[][] parseRows(HttpExchange exchange, Instances header) throws IOException {
+        int numAttributes = header.numAttributes();
+        int classIndex = header.classIndex();
+        List<double[]> rows = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) continue;
+
+            String[] fields = line.split(",", -1);
+            boolean hasClass = fields.length == numAttributes;
+            if (!hasClass && fields.length != numAttributes - 1) {
+                throw new IllegalArgumentException("Row " + (rows.size() + 1) + " has " + fields.length + " values but the model expects " + (numAttributes - 1));
+            }
+
+            double[] values = new double[numAttributes];
+            int field = 0;
+            for (int j = 0; j < numAttributes; j++) {
+                if (j == classIndex) {
+                    values[j] = Double.NaN;
+                    if (hasClass) field++;
+                    continue;
+                }
+                values[j] = parseValue(header.attribute(j), fields[field++].trim());
+            }
+            rows.add(values);
+        }
+        return rows.toArray(new double[rows.size()][]);
+    }
+
+    private static double parseValue(Attribute attribute, String field) {
+        if (field.isEmpty() || field.equals("?")) return Double.NaN;
+        if (field.length() > 1 && (field.charAt(0) == '\'' || field.charAt(0) == '"') && field.charAt(field.length() - 1) == field.charAt(0)) {
+            field = field.substring(1, field.length() - 1);
+        }
+
+        if (attribute.isNumeric()) {
+            try {
+                return Double.parseDouble(field);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(attribute.name() + " is numeric but got " + field);
+            }
+        }
+        int code = attribute.indexOfValue(field);
+        if (code == -1) {
+            throw new IllegalArgumentException(attribute.name() + " has no value " + field);
+        }
+        return code;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        StringBuilder body = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            body.append(line).append('\n');
+        }
+        return body.toString();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.company;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * State shared by every node while a single tree is being trained. Nodes own a
+ * contiguous range of the rows array and partition it in place for their children,
+ * so subtrees can be grown on different threads without any locking.
+ *
+ * Each numeric attribute also gets its own copy of the rows, sorted by value once up
+ * front. A node owns the same range of those arrays and partitions them stably along
+ * with rows, so every node sees its rows already in value order.
+ */
+class TrainingContext {
+
+    private EncodedDataset data;
+    private int[] rows;
+    private int[] scratch;
+    private int[][] sortedRows;
+    private int[] numericAttributes;
+    private int[] rowGroup;
+    private TrainingOptions options;
+    private ForkJoinPool pool;
+    private int[] weights;
+    private Random attributeRandom;
+    private int attributesPerSplit;
+    private BitmapIndex bitmapIndex;
+    private LongAdder approximateSearches = new LongAdder();
+    private LongAdder approximateSplits = new LongAdder();
+    private LongAdder rowsSampled = new LongAdder();
+    private LongAdder approximateAudits = new LongAdder();
+    private LongAdder approximateDisagreements = new LongAdder();
+
+    public TrainingContext(EncodedDataset data, int[] rows, TrainingOptions options) {
+        this.data = data;
+        this.rows = rows;
+        this.scratch = new int[rows.length];
+        this.options = options;
+        this.sortedRows = new int[data.numAttributes()][];
+        this.rowGroup = new int[data.numRows()];
+
+        int numNumeric = 0;
+        for (int j = 0; j < data.numAttributes(); j++) {
+            if (j != data.classIndex() && data.isNumeric(j)) {
+                this.sortedRows[j] = sortByCode(data, j, rows);
+                numNumeric++;
+            }
+        }
+        this.numericAttributes = new int[numNumeric];
+        int k = 0;
+        for (int j = 0; j < data.numAttributes(); j++) {
+            if (this.sortedRows[j] != null) this.numericAttributes[k++] = j;
+        }
+    }
+
+    // Counting sort, since codes already follow value order. Missing values go last
+    private static int[] sortByCode(EncodedDataset data, int attrIndex, int[] rows) {
+        int numValues = data.numValues(attrIndex);
+        int[] starts = new int[numValues + 2];
+        for (int row : rows) {
+            int code = data.code(attrIndex, row);
+            starts[(code == EncodedDataset.MISSING ? numValues : code) + 1]++;
+        }
+        for (int code = 0; code <= numValues; code++) {
+            starts[code + 1] += starts[code];
+        }
+
+        int[] sorted = new int[rows.length];
+        for (int row : rows) {
+            int code = data.code(attrIndex, row);
+            sorted[starts[code == EncodedDataset.MISSING ? numValues : code]++] = row;
+        }
+        return sorted;
+    }
+
+    public EncodedDataset getData() {
+        return this.data;
+    }
+
+    public int[] getRows() {
+        return this.rows;
+    }
+
+    public int[] getScratch() {
+        return this.scratch;
+    }
+
+    /**
+     * The rows sorted by the numeric attribute, with missing values last, or null for other attributes.
+     */
+    public int[] getSortedRows(int attrIndex) {
+        return this.sortedRows[attrIndex];
+    }
+
+    /**
+     * Numeric attributes other than the class, in dataset order. Callers must not modify the array.
+     */
+    public int[] getNumericAttributes() {
+        return this.numericAttributes;
+    }
+
+    /**
+     * excludedAttributes with every numeric attribute excluded as well, for the contingency
+     * tables, which only handle nominal splits.
+     */
+    public boolean[] excludeNumeric(boolean[] excludedAttributes) {
+        if (this.numericAttributes.length == 0) {
+            return excludedAttributes;
+        }
+
+        boolean[] excluded = excludedAttributes.clone();
+        for (int j : this.numericAttributes) {
+            excluded[j] = true;
+        }
+        return excluded;
+    }
+
+    /**
+     * The child group each row was sent to by the last node that partitioned it, indexed by row.
+     */
+    public int[] getRowGroup() {
+        return this.rowGroup;
+    }
+
+    public TrainingOptions getOptions() {
+        return this.options;
+    }
+
+    public ForkJoinPool getPool() {
+        return this.pool;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * How many times each row counts, indexed by row, or null if every row counts once.
+     */
+    public int[] getWeights() {
+        return this.weights;
+    }
+
+    public void setWeights(int[] weights) {
+        this.weights = weights;
+    }
+
+    /**
+     * Makes every split search consider only attributesPerSplit unused attributes drawn
+     * with random. The draws are only reproducible when the tree is trained on one thread.
+     */
+    public void setAttributeSampling(Random random, int attributesPerSplit) {
+        this.attributeRandom = random;
+        this.attributesPerSplit = attributesPerSplit;
+    }
+
+    /**
+     * The attributes split search should skip at a node: usedAttributes itself, or with
+     * attribute sampling on, a copy that also hides all but a random few of the rest.
+     */
+    public boolean[] excludedAttributes(boolean[] usedAttributes) {
+        if (this.attributeRandom == null) {
+            return usedAttributes;
+        }
+
+        int[] available = new int[usedAttributes.length];
+        int numAvailable = 0;
+        for (int j = 0; j < usedAttributes.length; j++) {
+            if (j != this.data.classIndex() && !usedAttributes[j]) available[numAvailable++] = j;
+        }
+        if (numAvailable <= this.attributesPerSplit) {
+            return usedAttributes;
+        }
+
+        // Partial Fisher-Yates shuffle, the first attributesPerSplit entries are the sample
+        boolean[] excluded = new boolean[usedAttributes.length];
+        Arrays.fill(excluded, true);
+        for (int k = 0; k < this.attributesPerSplit; k++) {
+            int pick = k + this.attributeRandom.nextInt(numAvailable - k);
+            int j = available[pick];
+            available[pick] = available[k];
+            available[k] = j;
+            excluded[j] = false;
+        }
+        return excluded;
+    }
+
+    /**
+     * Builds the row bitmaps when the counting backend asks for them, or under AUTO when
+     * counting the root with them is estimated to be cheaper than walking its rows. Call
+     * once weights and attribute sampling are set and before training starts.
+     */
+    public void prepareCounting() {
+        TrainingOptions.CountingBackend backend = this.options.getCountingBackend();
+        if (backend == TrainingOptions.CountingBackend.ROWS || this.weights != null) {
+            return;
+        }
+
+        boolean[] excluded = this.excludeNumeric(new boolean[this.data.numAttributes()]);
+        if (backend == TrainingOptions.CountingBackend.AUTO
+                && BitmapIndex.estimateCountingCost(this.data, this.rows.length, excluded) >= rowCountingCost(this.rows.length, excluded)) {
+            return;
+        }
+        this.bitmapIndex = new BitmapIndex(this.data, this.rows);
+    }
+
+    /**
+     * The row bitmaps, or null if every node counts rows.
+     */
+    public BitmapIndex getBitmapIndex() {
+        return this.bitmapIndex;
+    }
+
+    /**
+     * True if a node with this many rows should fill its tables from the row bitmaps.
+     * tableExcludedAttributes are the attributes its tables skip.
+     */
+    public boolean shouldCountWithBitmaps(int numRows, boolean[] tableExcludedAttributes) {
+        if (this.bitmapIndex == null) {
+            return false;
+        }
+        if (this.options.getCountingBackend() == TrainingOptions.CountingBackend.BITMAPS) {
+            return true;
+        }
+        return this.bitmapIndex.countingCost(numRows, tableExcludedAttributes) < rowCountingCost(numRows, tableExcludedAttributes);
+    }
+
+    // One visit per row and candidate attribute
+    private long rowCountingCost(int numRows, boolean[] tableExcludedAttributes) {
+        int numCandidates = 0;
+        for (int j = 0; j < tableExcludedAttributes.length; j++) {
+            if (j != this.data.classIndex() && !tableExcludedAttributes[j]) numCandidates++;
+        }
+        return (long) numRows * numCandidates;
+    }
+
+    /**
+     * True if a node with this many rows should pick its split attribute from a sample.
+     * Nodes under ApproximateSplitSearch.MIN_NODE_ROWS never do, whatever the options say.
+     */
+    public boolean shouldApproximateSplit(int numRows) {
+        int minRows = this.options.getApproximateSplitMinRows();
+        return minRows > 0 && numRows >= minRows && numRows >= ApproximateSplitSearch.MIN_NODE_ROWS;
+    }
+
+    /**
+     * Records a node whose split was searched for on a sample of sampledRows rows. decided
+     * is false when the sample never separated the best attribute and the node was counted exactly.
+     */
+    void approximateSearched(int sampledRows, boolean decided) {
+        this.approximateSearches.increment();
+        this.rowsSampled.add(sampledRows);
+        if (decided) this.approximateSplits.increment();
+    }
+
+    /**
+     * Records a sampled split that was checked against exact counting.
+     */
+    void approximateSplitAudited(boolean disagreed) {
+        this.approximateAudits.increment();
+        if (disagreed) this.approximateDisagreements.increment();
+    }
+
+    public ApproximateSplitReport getApproximateSplitReport() {
+        return new ApproximateSplitReport(this.approximateSearches.sum(), this.approximateSplits.sum(), this.rowsSampled.sum(),
+                this.approximateAudits.sum(), this.approximateDisagreements.sum());
+    }
+
+    /**
+     * True if a child with this many rows should be trained as a separate task.
+     */
+    public boolean shouldFork(int numRows) {
+        return this.pool != null && numRows >= this.options.getParallelThreshold();
+    }
+
+    /**
+     * True if split search over this many rows should be spread across the pool.
+     */
+    public boolean shouldSearchInParallel(int numRows) {
+        return this.options.isParallelSplitSearch() && this.shouldFork(numRows);
+    }
+}
@@ -0,0 +1,145 @@
+package com.company;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers for training and evaluation, plus the matching JFR events.
+ * Switched on with -Did3.metrics=true. Every call site checks ENABLED first, and since it
+ * is a static final the JIT drops the instrumentation entirely when it is off.
+ *
+ * Counters are process wide and add up across runs until reset is called.
+ */
+public final class TrainingMetrics {
+
+    public static final boolean ENABLED = Boolean.getBoolean("id3.metrics");
+
+    /**
+     * Depths at or beyond this are counted in the last bucket of the per level arrays.
+     */
+    public static final int MAX_DEPTH = 64;
+
+    private static final LongAdder nodesBuilt = new LongAdder();
+    private static final LongAdder leavesBuilt = new LongAdder();
+    private static final LongAdder significanceTests = new LongAdder();
+    private static final LongAdder prunedNodes = new LongAdder();
+    private static final LongAdder countingNanos = new LongAdder();
+    private static final LongAdder partitioningNanos = new LongAdder();
+    private static final LongAdder significanceNanos = new LongAdder();
+    private static final AtomicLongArray rowsScannedPerLevel = new AtomicLongArray(MAX_DEPTH);
+    private static final AtomicLongArray nodesPerDepth = new AtomicLongArray(MAX_DEPTH);
+    private static final LongAdder instancesEvaluated = new LongAdder();
+    private static final LongAdder evaluationNanos = new LongAdder();
+    private static final LongAdder approximateSearches = new LongAdder();
+    private static final LongAdder approximateSplits = new LongAdder();
+    private static final LongAdder rowsSampled = new LongAdder();
+    private static final LongAdder approximateAudits = new LongAdder();
+    private static final LongAdder approximateDisagreements = new LongAdder();
+
+    private TrainingMetrics() {
+    }
+
+    /**
+     * Records a node that went through split search. significanceTested is false when the
+     * test was skipped, either because no attribute was left or pruning is off.
+     */
+    static void nodeTrained(int depth, int numRows, String attributeName, long counting, long partitioning,
+                            long significance, boolean significanceTested, boolean split) {
+        int level = Math.min(depth, MAX_DEPTH - 1);
+        nodesBuilt.increment();
+        nodesPerDepth.incrementAndGet(level);
+        rowsScannedPerLevel.addAndGet(level, numRows);
+        countingNanos.add(counting);
+        partitioningNanos.add(partitioning);
+        significanceNanos.add(significance);
+        if (significanceTested) {
+            significanceTests.increment();
+            if (!split) prunedNodes.increment();
+        }
+
+        NodeTrainedEvent event = new NodeTrainedEvent();
+        if (event.isEnabled()) {
+            event.depth = depth;
+            event.rows = numRows;
+            event.attribute = attributeName;
+            event.countingTime = counting;
+            event.partitioningTime = partitioning;
+            event.significanceTime = significance;
+            event.split = split;
+            event.commit();
+        }
+    }
+
+    /**
+     * Records a child that became a leaf without training because all of its rows share a class.
+     */
+    static void leafBuilt(int depth) {
+        leavesBuilt.increment();
+        nodesPerDepth.incrementAndGet(Math.min(depth, MAX_DEPTH - 1));
+    }
+
+    /**
+     * Records a node whose split was searched for on a sample of sampledRows rows. decided
+     * is false when the sample never separated the best attribute and the node was counted exactly.
+     */
+    static void approximateSearch(int sampledRows, boolean decided) {
+        approximateSearches.increment();
+        rowsSampled.add(sampledRows);
+        if (decided) approximateSplits.increment();
+    }
+
+    /**
+     * Records a sampled split that was checked against exact counting.
+     */
+    static void approximateSplitAudited(boolean disagreed) {
+        approximateAudits.increment();
+        if (disagreed) approximateDisagreements.increment();
+    }
+
+    static void evaluated(int numInstances, int numMatches, long nanos) {
+        instancesEvaluated.add(numInstances);
+        evaluationNanos.add(nanos);
+
+        EvaluationEvent event = new EvaluationEvent();
+        if (event.isEnabled()) {
+            event.instances = numInstances;
+            event.matches = numMatches;
+            event.scoringTime = nanos;
+            event.commit();
+        }
+    }
+
+    public static MetricsSnapshot snapshot() {
+        long[] rowsPerLevel = new long[MAX_DEPTH];
+        long[] nodesAtDepth = new long[MAX_DEPTH];
+        for (int i = 0; i < MAX_DEPTH; i++) {
+            rowsPerLevel[i] = rowsScannedPerLevel.get(i);
+            nodesAtDepth[i] = nodesPerDepth.get(i);
+        }
+        return new MetricsSnapshot(nodesBuilt.sum(), leavesBuilt.sum(), significanceTests.sum(), prunedNodes.sum(),
+                countingNanos.sum(), partitioningNanos.sum(), significanceNanos.sum(), rowsPerLevel, nodesAtDepth,
+                instancesEvaluated.sum(), evaluationNanos.sum(), approximateSearches.sum(), approximateSplits.sum(),
+                rowsSampled.sum(), approximateAudits.sum(), approximateDisagreements.sum());
+    }
+
+    public static void reset() {
+        nodesBuilt.reset();
+        leavesBuilt.reset();
+        significanceTests.reset();
+        prunedNodes.reset();
+        countingNanos.reset();
+        partitioningNanos.reset();
+        significanceNanos.reset();
+        for (int i = 0; i < MAX_DEPTH; i++) {
+            rowsScannedPerLevel.set(i, 0);
+            nodesPerDepth.set(i, 0);
+        }
+        instancesEvaluated.reset();
+        evaluationNanos.reset();
+        approximateSearches.reset();
+        approximateSplits.reset();
+        rowsSampled.reset();
+        approximateAudits.reset();
+        approximateDisagreements.reset();
+    }
+}
@@ -0,0 +1,147 @@
+package com.company;
+
+/**
+ * Knobs that change how a tree is trained but never what tree comes out, apart from
+ * approximate split selection, which trades exactness near the root for speed.
+ */
+public class TrainingOptions {
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+
+    public static final int DEFAULT_SPLIT_SEARCH_SLICE_SIZE = 64;
+
+    public static final double DEFAULT_APPROXIMATE_SPLIT_DELTA = 1e-7;
+
+    /**
+     * How contingency tables are counted. ROWS walks each node's rows once per candidate
+     * attribute, BITMAPS intersects precomputed per value and per class row bitmaps, and
+     * AUTO picks per node whichever a cost estimate says is cheaper.
+     */
+    public enum CountingBackend { AUTO, ROWS, BITMAPS }
+
+    private int parallelism;
+    private int parallelThreshold;
+    private boolean parallelSplitSearch;
+    private int splitSearchSliceSize;
+    private CountingBackend countingBackend;
+    private int approximateSplitMinRows;
+    private double approximateSplitDelta;
+    private boolean approximateSplitAudit;
+
+    public TrainingOptions() {
+        this.parallelism = 1;
+        this.parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+        this.parallelSplitSearch = false;
+        this.splitSearchSliceSize = DEFAULT_SPLIT_SEARCH_SLICE_SIZE;
+        this.countingBackend = CountingBackend.AUTO;
+        this.approximateSplitMinRows = 0;
+        this.approximateSplitDelta = DEFAULT_APPROXIMATE_SPLIT_DELTA;
+        this.approximateSplitAudit = false;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Number of worker threads used to grow subtrees. 1 trains everything on the calling thread.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Smallest number of rows a child needs before it is trained as its own fork/join task.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public boolean isParallelSplitSearch() {
+        return parallelSplitSearch;
+    }
+
+    /**
+     * Counts and scores slices of the candidate attributes on separate threads for nodes
+     * with at least parallelThreshold rows. Only takes effect when parallelism is above 1.
+     */
+    public void setParallelSplitSearch(boolean parallelSplitSearch) {
+        this.parallelSplitSearch = parallelSplitSearch;
+    }
+
+    public int getSplitSearchSliceSize() {
+        return splitSearchSliceSize;
+    }
+
+    /**
+     * Number of candidate attributes each split search task counts and scores.
+     */
+    public void setSplitSearchSliceSize(int splitSearchSliceSize) {
+        if (splitSearchSliceSize < 1) {
+            throw new IllegalArgumentException("Split search slice size must be at least 1, got " + splitSearchSliceSize);
+        }
+        this.splitSearchSliceSize = splitSearchSliceSize;
+    }
+
+    public CountingBackend getCountingBackend() {
+        return countingBackend;
+    }
+
+    /**
+     * Bitmaps only ever count unweighted nominal attributes. Weighted training always
+     * counts rows, and numeric attributes are swept from their sorted orders either way.
+     */
+    public void setCountingBackend(CountingBackend countingBackend) {
+        if (countingBackend == null) {
+            throw new IllegalArgumentException("Counting backend must not be null");
+        }
+        this.countingBackend = countingBackend;
+    }
+
+    public int getApproximateSplitMinRows() {
+        return approximateSplitMinRows;
+    }
+
+    public double getApproximateSplitDelta() {
+        return approximateSplitDelta;
+    }
+
+    /**
+     * Picks the split attribute of nodes with at least minRows rows from a random sample
+     * of them, stopping once the best nominal attribute beats the runner up by the
+     * Hoeffding bound for delta. The chosen attribute is still counted over every row, so
+     * partitions and significance tests are exact. Nodes under
+     * ApproximateSplitSearch.MIN_NODE_ROWS are too small to sample and are always counted
+     * exactly. 0 turns it off, which is the default.
+     */
+    public void setApproximateSplits(int minRows, double delta) {
+        if (minRows < 0) {
+            throw new IllegalArgumentException("Min rows must not be negative, got " + minRows);
+        }
+        if (delta <= 0 || delta >= 1) {
+            throw new IllegalArgumentException("Delta must be in (0, 1), got " + delta);
+        }
+        this.approximateSplitMinRows = minRows;
+        this.approximateSplitDelta = delta;
+    }
+
+    public boolean isApproximateSplitAudit() {
+        return approximateSplitAudit;
+    }
+
+    /**
+     * Also counts every attribute exactly at nodes whose split was picked from a sample,
+     * and reports whether the exact choice would have been different. Costs the time
+     * approximation saves.
+     */
+    public void setApproximateSplitAudit(boolean approximateSplitAudit) {
+        this.approximateSplitAudit = approximateSplitAudit;
+    }
+}
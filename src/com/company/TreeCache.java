@@ -0,0 +1,206 @@
+package com.company;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trained trees keyed by a fingerprint of the data they were trained on and the
+ * confidence they were pruned at. Each dataset is trained once, without pruning, and the
+ * tree for any confidence is derived from that one with ID3TreeNode.atConfidence. That
+ * only pays off when several confidences are asked for, so a single tree is better
+ * trained directly. Unpruned and derived trees share one bound and the least recently
+ * used is dropped first. A tree asked for by several threads at once is built once and
+ * the others wait for it. What approximate split search did during training is kept with
+ * every tree that came from it, for callers to report.
+ *
+ * Trees handed out are shared, so callers must not modify them.
+ */
+public class TreeCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private final Map<Key, FutureTask<Entry>> trees;
+    private final AtomicInteger numTrainings = new AtomicInteger();
+    private final AtomicInteger numDerived = new AtomicInteger();
+    private final AtomicInteger numHits = new AtomicInteger();
+
+    public TreeCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public TreeCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Cache must hold at least 1 tree, got " + maxEntries);
+        }
+        this.trees = Collections.synchronizedMap(new LinkedHashMap<Key, FutureTask<Entry>>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, FutureTask<Entry>> eldest) {
+                return this.size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * The tree for rows of data pruned at confidence, which is between 0 and 1 or
+     * CriticalValuesTable.NO_PRUNING_CONFIDENCE, trained or derived only if it is not
+     * already cached. rows is not modified. Every row must have a class value.
+     */
+    public ID3TreeNode get(EncodedDataset data, int[] rows, double confidence, TrainingOptions options) {
+        return this.get(data.fingerprint(rows), data, rows, confidence, options);
+    }
+
+    /**
+     * Same as get, for callers that already have a key telling data and rows apart from
+     * everything else in this cache, such as a fingerprint computed once up front, so the
+     * rows are not hashed again on every call.
+     */
+    public ID3TreeNode get(long dataKey, EncodedDataset data, int[] rows, double confidence, TrainingOptions options) {
+        CriticalValuesTable.checkConfidence(confidence);
+        return this.get(new Key(dataKey, confidence, options), data, rows, options).tree;
+    }
+
+    /**
+     * What approximate split search did while training the tree cached for dataKey and
+     * confidence, or the unpruned tree it was derived from. Null if no such tree is cached
+     * or it is still being built.
+     */
+    public ApproximateSplitReport getApproximateSplitReport(long dataKey, double confidence, TrainingOptions options) {
+        FutureTask<Entry> task = this.trees.get(new Key(dataKey, confidence, options));
+        if (task == null || !task.isDone()) return null;
+        try {
+            return task.get().report;
+        } catch (ExecutionException | InterruptedException e) {
+            return null;
+        }
+    }
+
+    private Entry get(Key key, EncodedDataset data, int[] rows, TrainingOptions options) {
+        FutureTask<Entry> task;
+        boolean isNew = false;
+        synchronized (this.trees) {
+            task = this.trees.get(key);
+            if (task == null) {
+                task = new FutureTask<>(() -> this.build(key, data, rows, options));
+                this.trees.put(key, task);
+                isNew = true;
+            }
+        }
+
+        if (isNew) {
+            task.run();
+        } else {
+            this.numHits.incrementAndGet();
+        }
+
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            // Let the next caller try again rather than caching the failure
+            this.trees.remove(key, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException("Could not build the tree", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for another thread to build the tree", e);
+        }
+    }
+
+    private Entry build(Key key, EncodedDataset data, int[] rows, TrainingOptions options) {
+        if (key.confidence == CriticalValuesTable.NO_PRUNING_CONFIDENCE) {
+            this.numTrainings.incrementAndGet();
+            ID3TreeNode tree = ID3TreeNode.forConfidence(CriticalValuesTable.NO_PRUNING_CONFIDENCE);
+            ApproximateSplitReport report = tree.train(data, rows.clone(), options);
+            return new Entry(tree, report);
+        }
+
+        Entry unpruned = this.get(key.unpruned(), data, rows, options);
+        this.numDerived.incrementAndGet();
+        return new Entry(unpruned.tree.atConfidence(key.confidence), unpruned.report);
+    }
+
+    /**
+     * Number of trees trained from scratch.
+     */
+    public int getNumTrainings() {
+        return this.numTrainings.get();
+    }
+
+    /**
+     * Number of trees derived from an unpruned tree.
+     */
+    public int getNumDerived() {
+        return this.numDerived.get();
+    }
+
+    /**
+     * Number of requests answered by a tree already cached or being built.
+     */
+    public int getNumHits() {
+        return this.numHits.get();
+    }
+
+    public int size() {
+        return this.trees.size();
+    }
+
+    /**
+     * A cached tree and the report from the training it came from.
+     */
+    private static class Entry {
+
+        private ID3TreeNode tree;
+        private ApproximateSplitReport report;
+
+        Entry(ID3TreeNode tree, ApproximateSplitReport report) {
+            this.tree = tree;
+            this.report = report;
+        }
+    }
+
+    /**
+     * Identifies a tree by its data and by the settings that change what training grows.
+     */
+    private static class Key {
+
+        private long fingerprint;
+        private double confidence;
+        private int approximateSplitMinRows;
+        private double approximateSplitDelta;
+
+        Key(long fingerprint, double confidence, TrainingOptions options) {
+            this(fingerprint, confidence, options.getApproximateSplitMinRows(), options.getApproximateSplitDelta());
+        }
+
+        private Key(long fingerprint, double confidence, int approximateSplitMinRows, double approximateSplitDelta) {
+            this.fingerprint = fingerprint;
+            this.confidence = confidence;
+            this.approximateSplitMinRows = approximateSplitMinRows;
+            this.approximateSplitDelta = approximateSplitDelta;
+        }
+
+        Key unpruned() {
+            return new Key(this.fingerprint, CriticalValuesTable.NO_PRUNING_CONFIDENCE, this.approximateSplitMinRows, this.approximateSplitDelta);
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return this.fingerprint == other.fingerprint
+                    && Double.compare(this.confidence, other.confidence) == 0
+                    && this.approximateSplitMinRows == other.approximateSplitMinRows
+                    && Double.compare(this.approximateSplitDelta, other.approximateSplitDelta) == 0;
+        }
+
+        public int hashCode() {
+            int hash = Long.hashCode(this.fingerprint);
+            hash = 31 * hash + Double.hashCode(this.confidence);
+            hash = 31 * hash + this.approximateSplitMinRows;
+            return 31 * hash + Double.hashCode(this.approximateSplitDelta);
+        }
+    }
+}
@@ -0,0 +1,656 @@
+package com.company;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Writes the class file for a CompiledTree turned into straight-line code. Every internal
+ * node becomes a tableswitch on the nominal code, a compare against the threshold, or a
+ * chain of compares against the keys, each branch jumping to the code of the child, so
+ * the only loop left is the one the JIT unrolls for it.
+ *
+ * The class implements ToDoubleFunction, taking either a double[] or an Instance. Subtrees
+ * too big to share a method with their parent get a static method of their own, keeping
+ * every method under HotSpot's limit on the size of methods it will compile. The class
+ * file version predates stack map frames, so none have to be computed.
+ *
+ * Thresholds and keys are not constants in the class, where a big numeric tree would run
+ * the constant pool past its 65535 entries. They are read from the static THRESHOLDS_FIELD
+ * and KEYS_FIELD tables instead, one row per subtree method, which the loader fills in
+ * from getThresholds and getKeys. Trees that would still overflow a class file limit make
+ * generate throw IllegalStateException.
+ */
+class TreeClassGenerator {
+
+    /**
+     * HotSpot never compiles methods with more than 8000 bytes of bytecode.
+     */
+    public static final int MAX_METHOD_SIZE = 7000;
+
+    public static final String THRESHOLDS_FIELD = "thresholds";
+
+    public static final String KEYS_FIELD = "keys";
+
+    // Constant pool indices and method counts are both u2 in the class file
+    private static final int MAX_CLASS_FILE_COUNT = 65535;
+
+    private static final int CLASS_FILE_VERSION = 49;
+
+    private static final int NAN_TARGET = Integer.MIN_VALUE;
+
+    // Upper bounds on the bytes each construct takes, used to split the tree into methods
+    private static final int LEAF_SIZE = 4;
+    private static final int NODE_PROLOGUE_SIZE = 16;
+    private static final int THRESHOLD_SIZE = 14;
+    private static final int SWITCH_SIZE = 18;
+    private static final int KEYED_SIZE = 11;
+    private static final int STUB_SIZE = 5;
+
+    // Locals of a subtree method: the row, the attribute value, its bits, then the method's tables
+    private static final int THRESHOLDS_LOCAL = 5;
+    private static final int KEYS_LOCAL = 6;
+
+    private int[] nodeAttribute;
+    private double[] nodeClass;
+    private int[] childOffset;
+    private int[] childCount;
+    private int[] fallbackChild;
+    private byte[] nodeKind;
+    private int[] childNodes;
+    private double[] childKeys;
+
+    private boolean[] methodRoot;
+    // For method roots the row of the tables the method reads, for other nodes where their
+    // threshold or first key sits in that row
+    private int[] methodNumber;
+    private int[] constantIndex;
+    private double[][] thresholds;
+    private long[][] keys;
+    private ConstantPool pool;
+    private String className;
+
+    public TreeClassGenerator(CompiledTree tree, String className) {
+        this.nodeAttribute = tree.getNodeAttribute();
+        this.nodeClass = tree.getNodeClass();
+        this.childOffset = tree.getChildOffset();
+        this.childCount = tree.getChildCount();
+        this.fallbackChild = tree.getFallbackChild();
+        this.nodeKind = tree.getNodeKind();
+        this.childNodes = tree.getChildNodes();
+        this.childKeys = tree.getChildKeys();
+        this.className = className.replace('.', '/');
+        this.pool = new ConstantPool();
+    }
+
+    public byte[] generate() {
+        this.methodRoot = new boolean[this.nodeAttribute.length];
+        this.methodRoot[0] = true;
+        this.plan(0);
+        this.layOutConstants();
+
+        List<byte[]> methods = new ArrayList<>();
+        methods.add(this.constructor());
+        methods.add(this.applyAsDouble());
+        for (int n = 0; n < this.methodRoot.length; n++) {
+            if (!this.methodRoot[n]) continue;
+            methods.add(this.subtreeMethod(n, false));
+            methods.add(this.subtreeMethod(n, true));
+        }
+        if (methods.size() > MAX_CLASS_FILE_COUNT) {
+            throw new IllegalStateException("Tree needs " + methods.size() + " methods, more than a class can have");
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int thisClass = this.pool.classRef(this.className);
+            int superClass = this.pool.classRef("java/lang/Object");
+            int function = this.pool.classRef("java/util/function/ToDoubleFunction");
+            int[] thresholdsField = {this.pool.utf8(THRESHOLDS_FIELD), this.pool.utf8("[[D")};
+            int[] keysField = {this.pool.utf8(KEYS_FIELD), this.pool.utf8("[[J")};
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(CLASS_FILE_VERSION);
+            this.pool.write(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(function);
+            out.writeShort(2);
+            for (int[] field : new int[][]{thresholdsField, keysField}) {
+                out.writeShort(0x0001 | 0x0008);
+                out.writeShort(field[0]);
+                out.writeShort(field[1]);
+                out.writeShort(0);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Thresholds for the THRESHOLDS_FIELD table, one row per subtree method. Only filled in
+     * by generate.
+     */
+    public double[][] getThresholds() {
+        return this.thresholds;
+    }
+
+    /**
+     * Bits of the keys for the KEYS_FIELD table, one row per subtree method. Only filled in
+     * by generate.
+     */
+    public long[][] getKeys() {
+        return this.keys;
+    }
+
+    // Numbers the methods and gives every threshold and key a place in its method's row, in
+    // the order the method's code reads them
+    private void layOutConstants() {
+        this.methodNumber = new int[this.nodeAttribute.length];
+        this.constantIndex = new int[this.nodeAttribute.length];
+        List<double[]> thresholdRows = new ArrayList<>();
+        List<long[]> keyRows = new ArrayList<>();
+        for (int root = 0; root < this.methodRoot.length; root++) {
+            if (!this.methodRoot[root]) continue;
+            this.methodNumber[root] = thresholdRows.size();
+
+            List<Integer> nodes = new ArrayList<>();
+            this.methodNodes(root, root, nodes);
+            int numThresholds = 0;
+            int numKeys = 0;
+            for (int node : nodes) {
+                if (this.nodeAttribute[node] == CompiledTree.LEAF) continue;
+                if (this.nodeKind[node] == CompiledTree.THRESHOLD) {
+                    this.constantIndex[node] = numThresholds++;
+                } else if (this.nodeKind[node] == CompiledTree.KEYED) {
+                    this.constantIndex[node] = numKeys;
+                    numKeys += this.childCount[node];
+                }
+            }
+
+            double[] thresholds = new double[numThresholds];
+            long[] keys = new long[numKeys];
+            for (int node : nodes) {
+                if (this.nodeAttribute[node] == CompiledTree.LEAF) continue;
+                int offset = this.childOffset[node];
+                if (this.nodeKind[node] == CompiledTree.THRESHOLD) {
+                    thresholds[this.constantIndex[node]] = this.childKeys[offset];
+                } else if (this.nodeKind[node] == CompiledTree.KEYED) {
+                    for (int k = 0; k < this.childCount[node]; k++) {
+                        keys[this.constantIndex[node] + k] = Double.doubleToLongBits(this.childKeys[offset + k]);
+                    }
+                }
+            }
+            thresholdRows.add(thresholds);
+            keyRows.add(keys);
+        }
+        this.thresholds = thresholdRows.toArray(new double[thresholdRows.size()][]);
+        this.keys = keyRows.toArray(new long[keyRows.size()][]);
+    }
+
+    // The nodes whose code goes in the method rooted at methodRoot, in the order emitNode writes them
+    private void methodNodes(int node, int methodRoot, List<Integer> nodes) {
+        nodes.add(node);
+        for (int child : this.children(node)) {
+            if (!this.methodRoot[child] || child == methodRoot) {
+                this.methodNodes(child, methodRoot, nodes);
+            }
+        }
+    }
+
+    // Bytes of code the node takes on its own, not counting its children
+    private int ownSize(int node) {
+        if (this.nodeAttribute[node] == CompiledTree.LEAF) {
+            return LEAF_SIZE;
+        }
+        int size = NODE_PROLOGUE_SIZE + LEAF_SIZE;
+        if (this.nodeKind[node] == CompiledTree.THRESHOLD) {
+            size += THRESHOLD_SIZE;
+        } else if (this.nodeKind[node] == CompiledTree.INDEXED) {
+            size += SWITCH_SIZE + 4 * this.childCount[node];
+        } else {
+            size += SWITCH_SIZE + KEYED_SIZE * this.childCount[node];
+        }
+        return size;
+    }
+
+    // The distinct nodes a node can branch to, in preorder
+    private TreeSet<Integer> children(int node) {
+        TreeSet<Integer> children = new TreeSet<>();
+        if (this.nodeAttribute[node] == CompiledTree.LEAF) {
+            return children;
+        }
+        int offset = this.childOffset[node];
+        for (int k = offset; k < offset + this.childCount[node]; k++) {
+            if (this.childNodes[k] != CompiledTree.NO_CHILD) children.add(this.childNodes[k]);
+        }
+        if (this.fallbackChild[node] != CompiledTree.NO_CHILD) {
+            children.add(this.fallbackChild[node]);
+        }
+        return children;
+    }
+
+    // Bytes the node's code takes in its parent's method, moving the largest children into
+    // methods of their own until it fits
+    private int plan(int node) {
+        int size = this.ownSize(node);
+        List<int[]> inlined = new ArrayList<>();
+        for (int child : this.children(node)) {
+            int childSize = this.plan(child);
+            inlined.add(new int[]{child, childSize});
+            size += childSize;
+        }
+
+        inlined.sort((a, b) -> Integer.compare(b[1], a[1]));
+        for (int[] child : inlined) {
+            if (size <= MAX_METHOD_SIZE) break;
+            this.methodRoot[child[0]] = true;
+            size -= child[1] - STUB_SIZE;
+        }
+        return this.methodRoot[node] ? STUB_SIZE : size;
+    }
+
+    private static String methodName(int node, boolean instance) {
+        return (instance ? "instance" : "values") + node;
+    }
+
+    private static String methodDescriptor(boolean instance) {
+        return instance ? "(Lweka/core/Instance;)D" : "([D)D";
+    }
+
+    private byte[] constructor() {
+        Code code = new Code();
+        code.op(0x2a);
+        code.op(0xb7);
+        code.u2(this.pool.methodRef("java/lang/Object", "<init>", "()V"));
+        code.op(0xb1);
+        return this.method(0x0001, "<init>", "()V", code, 1, 1);
+    }
+
+    // Dispatches on the argument's type to the root method for double[] or Instance
+    private byte[] applyAsDouble() {
+        Code code = new Code();
+        code.op(0x2b);
+        code.op(0xc1);
+        code.u2(this.pool.classRef("[D"));
+        code.op(0x99);
+        code.u2(3 + 8);
+        code.op(0x2b);
+        code.op(0xc0);
+        code.u2(this.pool.classRef("[D"));
+        code.op(0xb8);
+        code.u2(this.pool.methodRef(this.className, methodName(0, false), methodDescriptor(false)));
+        code.op(0xaf);
+        code.op(0x2b);
+        code.op(0xc0);
+        code.u2(this.pool.classRef("weka/core/Instance"));
+        code.op(0xb8);
+        code.u2(this.pool.methodRef(this.className, methodName(0, true), methodDescriptor(true)));
+        code.op(0xaf);
+        return this.method(0x0001, "applyAsDouble", "(Ljava/lang/Object;)D", code, 2, 2);
+    }
+
+    private byte[] subtreeMethod(int root, boolean instance) {
+        Code code = new Code();
+        int number = this.methodNumber[root];
+        if (this.thresholds[number].length > 0) {
+            this.loadTable(code, THRESHOLDS_FIELD, "[[D", number, THRESHOLDS_LOCAL);
+        }
+        if (this.keys[number].length > 0) {
+            this.loadTable(code, KEYS_FIELD, "[[J", number, KEYS_LOCAL);
+        }
+
+        List<Integer> external = new ArrayList<>();
+        this.emitNode(root, root, instance, code, external);
+
+        for (int child : external) {
+            code.label(child);
+            code.op(0x2a);
+            code.op(0xb8);
+            code.u2(this.pool.methodRef(this.className, methodName(child, instance), methodDescriptor(instance)));
+            code.op(0xaf);
+        }
+        if (code.isTarget(NAN_TARGET)) {
+            code.label(NAN_TARGET);
+            this.pushDouble(code, Double.NaN);
+            code.op(0xaf);
+        }
+        code.resolve();
+
+        return this.method(0x000a, methodName(root, instance), methodDescriptor(instance), code, 4, KEYS_LOCAL + 1);
+    }
+
+    // Keeps the method's row of a static table in a local
+    private void loadTable(Code code, String field, String descriptor, int row, int local) {
+        code.op(0xb2);
+        code.u2(this.pool.fieldRef(this.className, field, descriptor));
+        this.pushInt(code, row);
+        code.op(0x32);
+        code.op(0x3a);
+        code.u1(local);
+    }
+
+    private void emitNode(int node, int methodRoot, boolean instance, Code code, List<Integer> external) {
+        code.label(node);
+        if (this.nodeAttribute[node] == CompiledTree.LEAF) {
+            this.pushDouble(code, this.nodeClass[node]);
+            code.op(0xaf);
+            return;
+        }
+
+        // Load the attribute value and send missing values to the fallback
+        code.op(0x2a);
+        this.pushInt(code, this.nodeAttribute[node]);
+        if (instance) {
+            code.op(0xb9);
+            code.u2(this.pool.interfaceMethodRef("weka/core/Instance", "value", "(I)D"));
+            code.u1(2);
+            code.u1(0);
+        } else {
+            code.op(0x31);
+        }
+        code.op(0x48);
+        code.op(0x27);
+        code.op(0x27);
+        code.op(0x97);
+        code.branch(0x9a, target(this.fallbackChild[node]));
+
+        int offset = this.childOffset[node];
+        int count = this.childCount[node];
+        if (this.nodeKind[node] == CompiledTree.THRESHOLD) {
+            code.op(0x27);
+            code.op(0x19);
+            code.u1(THRESHOLDS_LOCAL);
+            this.pushInt(code, this.constantIndex[node]);
+            code.op(0x31);
+            code.op(0x98);
+            code.branch(0x9d, target(this.childNodes[offset + 1]));
+            code.branch(0xa7, target(this.childNodes[offset]));
+        } else if (this.nodeKind[node] == CompiledTree.INDEXED) {
+            code.op(0x27);
+            code.op(0x8e);
+            int[] targets = new int[count];
+            for (int k = 0; k < count; k++) {
+                targets[k] = target(this.childNodes[offset + k]);
+            }
+            code.tableSwitch(target(this.fallbackChild[node]), targets);
+        } else {
+            // Keys match on their bits, the same equality Arrays.binarySearch uses
+            code.op(0x27);
+            code.op(0xb8);
+            code.u2(this.pool.methodRef("java/lang/Double", "doubleToLongBits", "(D)J"));
+            code.op(0x42);
+            for (int k = 0; k < count; k++) {
+                code.op(0x21);
+                code.op(0x19);
+                code.u1(KEYS_LOCAL);
+                this.pushInt(code, this.constantIndex[node] + k);
+                code.op(0x2f);
+                code.op(0x94);
+                code.branch(0x99, target(this.childNodes[offset + k]));
+            }
+            code.branch(0xa7, target(this.fallbackChild[node]));
+        }
+
+        for (int child : this.children(node)) {
+            if (this.methodRoot[child] && child != methodRoot) {
+                external.add(child);
+            } else {
+                this.emitNode(child, methodRoot, instance, code, external);
+            }
+        }
+    }
+
+    private static int target(int node) {
+        return node == CompiledTree.NO_CHILD ? NAN_TARGET : node;
+    }
+
+    private void pushInt(Code code, int value) {
+        if (value >= 0 && value <= 5) {
+            code.op(0x03 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            code.op(0x10);
+            code.u1(value);
+        } else if (value <= Short.MAX_VALUE) {
+            code.op(0x11);
+            code.u2(value);
+        } else {
+            code.op(0x13);
+            code.u2(this.pool.intConstant(value));
+        }
+    }
+
+    private void pushDouble(Code code, double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        if (bits == 0L) {
+            code.op(0x0e);
+        } else if (value == 1.0) {
+            code.op(0x0f);
+        } else {
+            code.op(0x14);
+            code.u2(this.pool.doubleConstant(value));
+        }
+    }
+
+    private byte[] method(int access, String name, String descriptor, Code code, int maxStack, int maxLocals) {
+        byte[] bytecode = code.toByteArray();
+        if (bytecode.length > 65535) {
+            throw new IllegalStateException("Generated method " + name + " is " + bytecode.length + " bytes");
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(this.pool.utf8(name));
+            out.writeShort(this.pool.utf8(descriptor));
+            out.writeShort(1);
+            out.writeShort(this.pool.utf8("Code"));
+            out.writeInt(12 + bytecode.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(bytecode.length);
+            out.write(bytecode);
+            out.writeShort(0);
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Bytecode of one method, with branches to labels patched in once every label is placed.
+     */
+    private static class Code {
+
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private Map<Integer, Integer> labels = new HashMap<>();
+        // Opcode position, offset position, offset width and target of each branch
+        private List<int[]> branches = new ArrayList<>();
+        private byte[] resolved;
+
+        void op(int opcode) {
+            this.bytes.write(opcode);
+        }
+
+        void u1(int value) {
+            this.bytes.write(value);
+        }
+
+        void u2(int value) {
+            this.bytes.write(value >>> 8);
+            this.bytes.write(value);
+        }
+
+        void u4(int value) {
+            this.u2(value >>> 16);
+            this.u2(value & 0xFFFF);
+        }
+
+        void label(int target) {
+            this.labels.put(target, this.bytes.size());
+        }
+
+        boolean isTarget(int target) {
+            for (int[] branch : this.branches) {
+                if (branch[3] == target) return true;
+            }
+            return false;
+        }
+
+        void branch(int opcode, int target) {
+            int at = this.bytes.size();
+            this.op(opcode);
+            this.branches.add(new int[]{at, this.bytes.size(), 2, target});
+            this.u2(0);
+        }
+
+        void tableSwitch(int defaultTarget, int[] targets) {
+            int at = this.bytes.size();
+            if (targets.length == 0) {
+                this.bytes.write(0x57);
+                this.branch(0xa7, defaultTarget);
+                return;
+            }
+            this.op(0xaa);
+            while (this.bytes.size() % 4 != 0) {
+                this.u1(0);
+            }
+            this.branches.add(new int[]{at, this.bytes.size(), 4, defaultTarget});
+            this.u4(0);
+            this.u4(0);
+            this.u4(targets.length - 1);
+            for (int target : targets) {
+                this.branches.add(new int[]{at, this.bytes.size(), 4, target});
+                this.u4(0);
+            }
+        }
+
+        void resolve() {
+            byte[] code = this.bytes.toByteArray();
+            for (int[] branch : this.branches) {
+                int offset = this.labels.get(branch[3]) - branch[0];
+                if (branch[2] == 2) {
+                    if (offset != (short) offset) {
+                        throw new IllegalStateException("Branch of " + offset + " bytes does not fit in a generated method");
+                    }
+                    code[branch[1]] = (byte) (offset >>> 8);
+                    code[branch[1] + 1] = (byte) offset;
+                } else {
+                    for (int b = 0; b < 4; b++) {
+                        code[branch[1] + b] = (byte) (offset >>> (24 - 8 * b));
+                    }
+                }
+            }
+            this.resolved = code;
+        }
+
+        byte[] toByteArray() {
+            return this.resolved != null ? this.resolved : this.bytes.toByteArray();
+        }
+    }
+
+    /**
+     * Class file constant pool, handing out one index per distinct constant.
+     */
+    private static class ConstantPool {
+
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private DataOutputStream out = new DataOutputStream(this.bytes);
+        private Map<String, Integer> indices = new HashMap<>();
+        private int count = 1;
+
+        private int add(String key, int slots, int tag, Object first, Object second) {
+            Integer index = this.indices.get(key);
+            if (index != null) return index;
+            if (this.count + slots > MAX_CLASS_FILE_COUNT) {
+                throw new IllegalStateException("Tree needs more constants than a class can have");
+            }
+
+            try {
+                this.out.writeByte(tag);
+                for (Object value : new Object[]{first, second}) {
+                    if (value instanceof String) {
+                        this.out.writeUTF((String) value);
+                    } else if (value instanceof Long) {
+                        this.out.writeLong((Long) value);
+                    } else if (value instanceof Integer) {
+                        if (tag == 3) {
+                            this.out.writeInt((Integer) value);
+                        } else {
+                            this.out.writeShort((Integer) value);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            index = this.count;
+            this.count += slots;
+            this.indices.put(key, index);
+            return index;
+        }
+
+        int utf8(String value) {
+            return this.add("U" + value, 1, 1, value, null);
+        }
+
+        int classRef(String name) {
+            int nameIndex = this.utf8(name);
+            return this.add("C" + name, 1, 7, nameIndex, null);
+        }
+
+        int nameAndType(String name, String descriptor) {
+            int nameIndex = this.utf8(name);
+            int descriptorIndex = this.utf8(descriptor);
+            return this.add("N" + name + " " + descriptor, 1, 12, nameIndex, descriptorIndex);
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            int ownerIndex = this.classRef(owner);
+            int nameAndType = this.nameAndType(name, descriptor);
+            return this.add("F" + owner + "." + name + descriptor, 1, 9, ownerIndex, nameAndType);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            int ownerIndex = this.classRef(owner);
+            int nameAndType = this.nameAndType(name, descriptor);
+            return this.add("M" + owner + "." + name + descriptor, 1, 10, ownerIndex, nameAndType);
+        }
+
+        int interfaceMethodRef(String owner, String name, String descriptor) {
+            int ownerIndex = this.classRef(owner);
+            int nameAndType = this.nameAndType(name, descriptor);
+            return this.add("I" + owner + "." + name + descriptor, 1, 11, ownerIndex, nameAndType);
+        }
+
+        int intConstant(int value) {
+            return this.add("i" + value, 1, 3, value, null);
+        }
+
+        int doubleConstant(double value) {
+            return this.add("D" + Double.doubleToRawLongBits(value), 2, 6, Double.doubleToRawLongBits(value), null);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeShort(this.count);
+            this.bytes.writeTo(out);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.company;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Anything that can predict a class value for a row once a tree has been trained.
+ * Implementations are immutable and safe to share between threads.
+ */
+public interface TreeScorer {
+
+    /**
+     * Predicts the class value for a row laid out like the scorer's header, with missing values as NaN.
+     * Returns NaN if the tree has nowhere to send the row.
+     */
+    double score(double[] values);
+
+    /**
+     * Predicts the class value for an instance whose dataset has the scorer's header layout.
+     */
+    double score(Instance instance);
+
+    /**
+     * Predicts the first size instances into predictions. Scorers that can do better than
+     * one row at a time, such as ensembles, override this.
+     */
+    default void score(Instance[] instances, int size, double[] predictions) {
+        for (int i = 0; i < size; i++) {
+            predictions[i] = this.score(instances[i]);
+        }
+    }
+
+    /**
+     * Predicts the first size rows into predictions, like the Instance batch above.
+     */
+    default void score(double[][] rows, int size, double[] predictions) {
+        for (int i = 0; i < size; i++) {
+            predictions[i] = this.score(rows[i]);
+        }
+    }
+
+    /**
+     * Empty dataset describing the attribute layout rows must have.
+     */
+    Instances getHeader();
+}